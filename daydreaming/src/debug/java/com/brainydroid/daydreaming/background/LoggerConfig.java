@@ -1,7 +1,9 @@
 package com.brainydroid.daydreaming.background;
 
 /**
- * Configuration for the whole application logging (system logs and toasts).
+ * Configuration for the whole application logging (system logs, in-memory
+ * records and toasts). Flags are constants so that disabled levels cost
+ * nothing.
  *
  * @author Sébastien Lerique
  * @author Vincent Adam
@@ -9,15 +11,21 @@ package com.brainydroid.daydreaming.background;
 public class LoggerConfig {
 
     /** Whether to show debug toasts or not */
-    public static boolean TOASTD = true;
+    public static final boolean TOASTD = true;
 
     /** Whether to log at info level or not */
-    public static boolean LOGI = true;
+    public static final boolean LOGI = true;
 
     /** Whether to log at verbose level or not */
-    public static boolean LOGV = true;
+    public static final boolean LOGV = true;
 
     /** Whether to log at debug level or not */
-    public static boolean LOGD = true;
+    public static final boolean LOGD = true;
+
+    /** Whether to write info, debug and verbose records to logcat or not */
+    public static final boolean LOGCAT = true;
+
+    /** Number of records kept in memory for crash reports (0 to disable) */
+    public static final int RING_BUFFER_SIZE = 256;
 
 }
@@ -5,6 +5,13 @@ public class ServerConfig {
     public static String YE_URL_API = "/v1";
     public static String YE_URL_PROFILES = YE_URL_API + "/profiles";
     public static String YE_URL_RESULTS = YE_URL_API + "/results";
+    public static String YE_URL_SYNC = YE_URL_API + "/sync";
+
+    // Send sequences, location points and profile in one signed request
+    public static boolean BATCHED_SYNC = false;
+    // If not null, batched syncs go to this backend (e.g. a local stand-in
+    // server) instead of the one from the parameters
+    public static String SYNC_BACKEND_URL = null;
 
     public static int NETWORK_TIMEOUT = 10 * 1000; // 10 seconds
 
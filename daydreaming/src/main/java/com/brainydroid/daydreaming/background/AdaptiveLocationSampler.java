@@ -0,0 +1,214 @@
+package com.brainydroid.daydreaming.background;
+
+import android.annotation.SuppressLint;
+import android.content.SharedPreferences;
+import android.location.Location;
+import android.os.SystemClock;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.util.Calendar;
+
+/**
+ * Adapt the location sampling of {@link LocationPointService} to the user's
+ * motion.
+ * <p/>
+ * Each listening window reports its fixes here. At the end of a window, its
+ * most accurate fix is compared to the one of the previous window: if they
+ * are within each other's accuracy radius (or {@link #STATIONARY_RADIUS}),
+ * the user is considered stationary and the stationary streak grows. Each
+ * step of the streak doubles the sampling interval (up to {@link
+ * #MAX_SAMPLE_INTERVAL}) and halves the listening time (down to {@link
+ * #MIN_LISTENING_TIME}); any move brings both back to {@link
+ * LocationPointService}'s defaults. Listening also stops early as soon as a
+ * fix reaches {@link #TARGET_ACCURACY}.
+ * <p/>
+ * Counters of fixes received, listening time and points stored are kept,
+ * see {@link #getMetricsString()}. They are saved once per window, when it
+ * closes.
+ *
+ * @author Sébastien Lerique
+ * @author Vincent Adam
+ * @see LocationPointService
+ */
+@Singleton
+public class AdaptiveLocationSampler {
+
+    private static String TAG = "AdaptiveLocationSampler";
+
+    /** Set to {@code false} to sample with the fixed defaults. */
+    public static boolean ADAPTIVE_SAMPLING = true;
+    /** Accuracy at which listening stops early (in meters). */
+    public static float TARGET_ACCURACY = 50;
+    /** Minimum distance to consider the user has moved (in meters). */
+    public static float STATIONARY_RADIUS = 100;
+    /** Longest interval between two listening windows. */
+    public static long MAX_SAMPLE_INTERVAL = 72 * 60 * 1000;  // 72 min (in ms)
+    /** Shortest listening window. */
+    public static long MIN_LISTENING_TIME = 30 * 1000;  // 30 seconds (in ms)
+    private static int MAX_STREAK = 8;
+
+    private static String PREFIX = "locationSampling_";
+    private static String STREAK = PREFIX + "stationaryStreak";
+    private static String LATITUDE = PREFIX + "latitude";
+    private static String LONGITUDE = PREFIX + "longitude";
+    private static String ACCURACY = PREFIX + "accuracy";
+    private static String LISTENING_START = PREFIX + "listeningStart";
+
+    private static String METRICS_START = PREFIX + "metricsStart";
+    private static String METRIC_FIXES = PREFIX + "fixes";
+    private static String METRIC_LISTENING = PREFIX + "listeningTime";
+    private static String METRIC_POINTS = PREFIX + "pointsStored";
+    private static String METRIC_EARLY_STOPS = PREFIX + "earlyStops";
+
+    private SharedPreferences sharedPreferences;
+    private SharedPreferences.Editor eSharedPreferences;
+
+    // Most accurate fix of the current window. Lost if the process is
+    // killed, in which case the window doesn't change the streak.
+    private Location bestFix = null;
+    // Metrics of the current window, saved when it closes
+    private long windowFixes = 0;
+    private long windowEarlyStops = 0;
+
+    @SuppressLint("CommitPrefEdits")
+    @Inject
+    public AdaptiveLocationSampler(SharedPreferences sharedPreferences) {
+        Logger.d(TAG, "AdaptiveLocationSampler created");
+        this.sharedPreferences = sharedPreferences;
+        eSharedPreferences = sharedPreferences.edit();
+    }
+
+    public synchronized long getSampleInterval() {
+        if (!ADAPTIVE_SAMPLING) {
+            return LocationPointService.SAMPLE_INTERVAL;
+        }
+        long interval = LocationPointService.SAMPLE_INTERVAL << getStreak();
+        return Math.min(interval, Math.max(MAX_SAMPLE_INTERVAL,
+                LocationPointService.SAMPLE_INTERVAL));
+    }
+
+    public synchronized long getListeningTime() {
+        if (!ADAPTIVE_SAMPLING) {
+            return LocationPointService.LISTENING_TIME;
+        }
+        long listeningTime = LocationPointService.LISTENING_TIME >> getStreak();
+        return Math.max(listeningTime, Math.min(MIN_LISTENING_TIME,
+                LocationPointService.LISTENING_TIME));
+    }
+
+    private synchronized int getStreak() {
+        return sharedPreferences.getInt(STREAK, 0);
+    }
+
+    public synchronized void onListeningStarted() {
+        Logger.d(TAG, "Listening window started");
+        bestFix = null;
+        windowFixes = 0;
+        windowEarlyStops = 0;
+        eSharedPreferences.putLong(LISTENING_START, SystemClock.elapsedRealtime());
+        eSharedPreferences.apply();
+    }
+
+    /**
+     * Record a fix received during the current window.
+     *
+     * @return {@code true} if the fix is accurate enough to stop listening
+     */
+    public synchronized boolean onFix(Location location) {
+        windowFixes++;
+
+        // Fixes without accuracy report 0, so they rank last
+        if (bestFix == null || (location.hasAccuracy() &&
+                (!bestFix.hasAccuracy() || location.getAccuracy() < bestFix.getAccuracy()))) {
+            bestFix = location;
+        }
+        return ADAPTIVE_SAMPLING && location.hasAccuracy()
+                && location.getAccuracy() <= TARGET_ACCURACY;
+    }
+
+    public synchronized void onEarlyStop() {
+        windowEarlyStops++;
+    }
+
+    /**
+     * Close the current window, updating the stationary streak from its
+     * most accurate fix.
+     *
+     * @param pointsStored Number of location points stored for the window
+     */
+    public synchronized void onListeningStopped(int pointsStored) {
+        long listeningStart = sharedPreferences.getLong(LISTENING_START, -1);
+        long now = SystemClock.elapsedRealtime();
+        if (listeningStart != -1 && listeningStart <= now) {
+            increment(METRIC_LISTENING, now - listeningStart);
+        }
+        eSharedPreferences.remove(LISTENING_START);
+        increment(METRIC_POINTS, pointsStored);
+        increment(METRIC_FIXES, windowFixes);
+        increment(METRIC_EARLY_STOPS, windowEarlyStops);
+        windowFixes = 0;
+        windowEarlyStops = 0;
+
+        if (bestFix == null) {
+            Logger.d(TAG, "No fix in this window, keeping the stationary streak");
+        } else if (isStationary(bestFix)) {
+            int streak = Math.min(getStreak() + 1, MAX_STREAK);
+            Logger.d(TAG, "User is stationary, streak is now {0}", streak);
+            eSharedPreferences.putInt(STREAK, streak);
+        } else {
+            Logger.d(TAG, "User moved, resetting the stationary streak");
+            eSharedPreferences.putInt(STREAK, 0);
+        }
+
+        if (bestFix != null) {
+            eSharedPreferences.putLong(LATITUDE, Double.doubleToLongBits(bestFix.getLatitude()));
+            eSharedPreferences.putLong(LONGITUDE, Double.doubleToLongBits(bestFix.getLongitude()));
+            eSharedPreferences.putFloat(ACCURACY, bestFix.getAccuracy());
+        }
+        eSharedPreferences.apply();
+        bestFix = null;
+    }
+
+    private synchronized boolean isStationary(Location fix) {
+        if (!sharedPreferences.contains(ACCURACY)) {
+            return false;
+        }
+
+        double previousLatitude = Double.longBitsToDouble(sharedPreferences.getLong(LATITUDE, 0));
+        double previousLongitude = Double.longBitsToDouble(
+                sharedPreferences.getLong(LONGITUDE, 0));
+        float previousAccuracy = sharedPreferences.getFloat(ACCURACY, 0);
+
+        float[] distance = new float[1];
+        Location.distanceBetween(previousLatitude, previousLongitude,
+                fix.getLatitude(), fix.getLongitude(), distance);
+        float radius = Math.max(STATIONARY_RADIUS,
+                Math.max(previousAccuracy, fix.getAccuracy()));
+        Logger.v(TAG, "Moved {0} m since last window (radius {1} m)", distance[0], radius);
+        return distance[0] <= radius;
+    }
+
+    private synchronized void increment(String metric, long count) {
+        if (!sharedPreferences.contains(METRICS_START)) {
+            eSharedPreferences.putLong(METRICS_START, Calendar.getInstance().getTimeInMillis());
+        }
+        eSharedPreferences.putLong(metric, sharedPreferences.getLong(metric, 0) + count);
+    }
+
+    public synchronized String getMetricsString() {
+        long fixes = sharedPreferences.getLong(METRIC_FIXES, 0);
+        long listeningSeconds = sharedPreferences.getLong(METRIC_LISTENING, 0) / 1000;
+        long points = sharedPreferences.getLong(METRIC_POINTS, 0);
+        long earlyStops = sharedPreferences.getLong(METRIC_EARLY_STOPS, 0);
+        long start = sharedPreferences.getLong(METRICS_START, -1);
+        double days = start == -1 ? 0 :
+                (Calendar.getInstance().getTimeInMillis() - start) / (24 * 60 * 60 * 1000.0);
+        return fixes + " fixes, " + listeningSeconds + " s listening, " + points +
+                " points, " + earlyStops + " early stops, streak " + getStreak() +
+                (days >= 1 ? String.format(" (per day: %.1f fixes, %.0f s, %.1f points)",
+                        fixes / days, listeningSeconds / days, points / days) : "");
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.brainydroid.daydreaming.background;
+
+import java.util.Calendar;
+
+/**
+ * The user's daily time window for notifications, and the time line it
+ * defines once the forbidden time windows are compactified: each forbidden
+ * time window is considered as a single instant, so that waiting delays
+ * only run during allowed time.
+ * <p/>
+ * Window boundaries are computed in local time with a {@link Calendar}, so
+ * days that are 23 or 25 hours long (daylight saving time changes) are
+ * handled correctly. All computations run in constant time, whatever the
+ * length of the delay.
+ *
+ * @author Sébastien Lerique
+ * @author Vincent Adam
+ * @see ProbeSchedulerService
+ */
+public class AllowedTimeWindow {
+
+    @SuppressWarnings("UnusedDeclaration")
+    private static String TAG = "AllowedTimeWindow";
+
+    /** Maximum number of whole windows a delay can be expanded over. */
+    private static long MAX_EXPANDED_WINDOWS = 100 * 366;
+
+    private final int startHour;
+    private final int startMinute;
+    private final int endHour;
+    private final int endMinute;
+    private final boolean crossesMidnight;
+    // Length of the window on a day without time change, in milliseconds
+    private final long allowedSpan;
+
+    // Reused for all boundary computations
+    private final Calendar calendar = Calendar.getInstance();
+
+    public AllowedTimeWindow(int startHour, int startMinute, int endHour, int endMinute) {
+        this.startHour = startHour;
+        this.startMinute = startMinute;
+        this.endHour = endHour;
+        this.endMinute = endMinute;
+
+        int startMinuteOfDay = startHour * 60 + startMinute;
+        int endMinuteOfDay = endHour * 60 + endMinute;
+        crossesMidnight = endMinuteOfDay < startMinuteOfDay;
+        int spanMinutes = endMinuteOfDay - startMinuteOfDay;
+        if (crossesMidnight) {
+            spanMinutes += 24 * 60;
+        }
+        allowedSpan = spanMinutes * 60 * 1000L;
+    }
+
+    public long getAllowedSpan() {
+        return allowedSpan;
+    }
+
+    @Override
+    public String toString() {
+        return startHour + ":" + startMinute + "-" + endHour + ":" + endMinute;
+    }
+
+    /**
+     * Get the start of the window opening {@code dayOffset} days after the
+     * day of {@code time}, in milliseconds from epoch.
+     */
+    public synchronized long getWindowStart(long time, int dayOffset) {
+        return getDayTime(time, dayOffset, startHour, startMinute);
+    }
+
+    /**
+     * Get the end of the window opening {@code dayOffset} days after the
+     * day of {@code time}, in milliseconds from epoch.
+     */
+    public synchronized long getWindowEnd(long time, int dayOffset) {
+        return getDayTime(time, crossesMidnight ? dayOffset + 1 : dayOffset,
+                endHour, endMinute);
+    }
+
+    private synchronized long getDayTime(long time, int dayOffset, int hour, int minute) {
+        calendar.setTimeInMillis(time);
+        calendar.add(Calendar.DAY_OF_YEAR, dayOffset);
+        calendar.set(Calendar.HOUR_OF_DAY, hour);
+        calendar.set(Calendar.MINUTE, minute);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Get the offset (in days from the day of {@code time}) of the first
+     * window that ends after {@code time}. That window contains {@code
+     * time} or is the next one to open.
+     */
+    public synchronized int getCurrentWindowOffset(long time) {
+        // If the window goes through midnight, yesterday's may still be open
+        int dayOffset = crossesMidnight ? -1 : 0;
+        while (getWindowEnd(time, dayOffset) <= time) {
+            dayOffset++;
+        }
+        return dayOffset;
+    }
+
+    /**
+     * Check if {@code time} falls in an allowed time window.
+     */
+    public synchronized boolean isAllowed(long time) {
+        if (allowedSpan == 0) {
+            return true;
+        }
+        return getWindowStart(time, getCurrentWindowOffset(time)) <= time;
+    }
+
+    /**
+     * Find the moment at which {@code delay} milliseconds of allowed time
+     * will have elapsed since {@code now}, on the compactified time line.
+     * <p/>
+     * Waiting starts at {@code now} if it is in an allowed window, or at the
+     * start of the next window otherwise. Whatever part of {@code delay}
+     * doesn't fit in that window is consumed in as many whole windows as
+     * necessary, and the rest is added to the start of the window after
+     * those. A moment falling exactly on the end of a window is moved to the
+     * start of the next one.
+     * <p/>
+     * Whole windows count for {@link #getAllowedSpan()}, so when the clocks
+     * change during one of them the result is off by that change (which
+     * only happens if the window includes the time of the change). Window
+     * boundaries always follow local time.
+     *
+     * @param now Moment to start waiting from, in milliseconds from epoch
+     * @param delay Allowed time to wait, in milliseconds
+     * @return Resulting moment, in milliseconds from epoch
+     */
+    public synchronized long getRespectfulTime(long now, long delay) {
+        if (allowedSpan == 0) {
+            // Start and end are the same: the whole day is allowed
+            return now + delay;
+        }
+
+        int dayOffset = getCurrentWindowOffset(now);
+        long windowEnd = getWindowEnd(now, dayOffset);
+        long position = Math.max(now, getWindowStart(now, dayOffset));
+
+        long leftInWindow = windowEnd - position;
+        if (delay < leftInWindow) {
+            return position + delay;
+        }
+
+        long remaining = delay - leftInWindow;
+        long wholeWindows = Math.min(remaining / allowedSpan, MAX_EXPANDED_WINDOWS);
+        long rest = remaining - wholeWindows * allowedSpan;
+        return getWindowStart(now, dayOffset + 1 + (int)wholeWindows) + rest;
+    }
+
+}
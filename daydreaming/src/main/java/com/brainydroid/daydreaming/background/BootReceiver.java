@@ -7,7 +7,8 @@ import roboguice.receiver.RoboBroadcastReceiver;
 
 /**
  * Start {@link ProbeSchedulerService} and {@link LocationPointService} when boot
- * is completed.
+ * is completed, after moving the intents scheduled with {@link
+ * WakeupCoordinator} to the new boot.
  * <p/>
  * These services are only started if the first launch has been completed
  * (i.e. the user has registered and is participating in the experiment).
@@ -23,6 +24,7 @@ public class BootReceiver extends RoboBroadcastReceiver {
     private static String TAG = "BootReceiver";
 
     @Inject StatusManager statusManager;
+    @Inject WakeupCoordinator wakeupCoordinator;
 
     @Override
     public void handleReceive(Context context, Intent intent) {
@@ -31,6 +33,7 @@ public class BootReceiver extends RoboBroadcastReceiver {
         String action = intent.getAction();
         if (action.equals(Intent.ACTION_BOOT_COMPLETED)) {
             Logger.d(TAG, "BootReceiver started for ACTION_BOOT_COMPLETED");
+            wakeupCoordinator.onBoot();
             statusManager.launchAllServices();
         }
     }
@@ -1,6 +1,5 @@
 package com.brainydroid.daydreaming.background;
 
-import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
@@ -17,8 +16,8 @@ import com.brainydroid.daydreaming.db.ConsistencyException;
 import com.brainydroid.daydreaming.db.Json;
 import com.brainydroid.daydreaming.db.ParametersStorage;
 import com.brainydroid.daydreaming.db.SequencesStorage;
-import com.brainydroid.daydreaming.network.SntpClient;
-import com.brainydroid.daydreaming.network.SntpClientCallback;
+import com.brainydroid.daydreaming.network.NtpTimeCallback;
+import com.brainydroid.daydreaming.network.NtpTimeService;
 import com.brainydroid.daydreaming.sequence.Sequence;
 import com.brainydroid.daydreaming.sequence.SequenceBuilder;
 import com.brainydroid.daydreaming.ui.dashboard.SettingsActivity;
@@ -53,14 +52,16 @@ public class DailySequenceService extends RoboService {
     @Inject SequencesStorage sequencesStorage;
     @Inject SequenceBuilder sequenceBuilder;
     @Inject SharedPreferences sharedPreferences;
-    @Inject SntpClient sntpClient;
+    @Inject NtpTimeService ntpTimeService;
     @Inject StatusManager statusManager;
     @Inject ErrorHandler errorHandler;
     @Inject Json json;
     @Inject ParametersStorage parametersStorage;
-    @Inject AlarmManager alarmManager;
+    @Inject ProbeExpiryManager probeExpiryManager;
+    @Inject ProbeSchedulePlanner probeSchedulePlanner;
 
     String sequenceType;
+    boolean isSequencePrepared = false;
 
     @Override
     public synchronized void onDestroy() {
@@ -93,18 +94,11 @@ public class DailySequenceService extends RoboService {
             // and doesn't interfere with scheduling. If other classes do interfere
             // (e.g. clearing parameters), they relaunch scheduler services.
         } else if (intent.getBooleanExtra(EXPIRE_PROBE, false)) {
-            Logger.v(TAG, "Started to expire pending probes");
-            int probeId = intent.getIntExtra(PROBE_ID, -1);
-            if (probeId == -1) {
-                // We have a problem
-                errorHandler.logError("ProbeService started to expire a probe, " +
-                        "but not probe id given", new ConsistencyException());
-                stopSelf();
-                return START_REDELIVER_INTENT;
-            }
-
+            Logger.v(TAG, "Started to expire due probes");
             if (statusManager.is(StatusManager.NOTIFICATION_EXPIRY_EXPLAINED)) {
-                expireProbe(probeId);
+                probeExpiryManager.expireDue();
+            } else {
+                probeExpiryManager.discardDue();
             }
         } else if (intent.getBooleanExtra(DISMISS_PROBE, false)) {
             Logger.v(TAG, "Started to dismiss probe");
@@ -136,12 +130,16 @@ public class DailySequenceService extends RoboService {
                 }
 
                 // Populate and notify the sequence
+                long startTime = SystemClock.elapsedRealtime();
                 Sequence sequence = populateSequence();
                 notifySequence(sequence);
+                statusManager.addNotificationLatency(isSequencePrepared,
+                        SystemClock.elapsedRealtime() - startTime);
 
                 if (sequenceType.equals(Sequence.TYPE_PROBE)) {
-                    // Schedule expiry
-                    scheduleProbeExpiry(sequence);
+                    // Schedule expiry, and move on to the next planned probe
+                    probeExpiryManager.add(sequence);
+                    probeSchedulePlanner.onProbeNotified();
                 }
             }
 
@@ -179,44 +177,12 @@ public class DailySequenceService extends RoboService {
 
     private synchronized void dismissProbe(int probeId) {
         Logger.v(TAG, "Dismissing probe");
+        probeExpiryManager.remove(probeId);
         Sequence probe = sequencesStorage.get(probeId);
         probe.setStatus(Sequence.STATUS_RECENTLY_DISMISSED);
         // Notification was already removed by the user.
     }
 
-    private synchronized void expireProbe(int probeId) {
-        Logger.v(TAG, "Expiring probe");
-        Sequence probe = sequencesStorage.get(probeId);
-        if (probe == null) {
-            Logger.v(TAG, "Probe not in DB any more, probably answered+synced+flushed. " +
-                    "No need to expire it.");
-            return;
-        }
-
-        String status = probe.getStatus();
-        if (status.equals(Sequence.STATUS_PENDING)) {
-            probe.setStatus(Sequence.STATUS_RECENTLY_MISSED);
-            notificationManager.cancel(sequenceType, probe.getRecurrentNotificationId());
-        } else {
-            Logger.v(TAG, "Probe {0} was not pending any more, but {1}. Not expiring.", status);
-        }
-    }
-
-    private synchronized void scheduleProbeExpiry(Sequence sequence) {
-        // Create and schedule the PendingIntent for DailySequenceService
-        Intent intent = new Intent(this, DailySequenceService.class);
-        intent.putExtra(SEQUENCE_TYPE, sequenceType);
-        intent.putExtra(EXPIRE_PROBE, true);
-        intent.putExtra(PROBE_ID, sequence.getId());
-
-        long scheduledTime = SystemClock.elapsedRealtime() + Sequence.EXPIRY_DELAY;
-        PendingIntent pendingIntent = PendingIntent.getService(this,
-                Sequence.getRecurrentRequestCode(sequenceType, EXPIRE_PROBE),
-                intent, PendingIntent.FLAG_UPDATE_CURRENT);
-        alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP,
-                scheduledTime, pendingIntent);
-    }
-
     private synchronized void flushRecentlyMarkedProbes() {
         ArrayList<Sequence> recentProbes = sequencesStorage.getRecentlyMarkedSequences(
                 Sequence.TYPE_PROBE);
@@ -323,7 +289,12 @@ public class DailySequenceService extends RoboService {
         // user, if there are any
         ArrayList<Sequence> pendingSequences = sequencesStorage.getPendingSequences(
                 sequenceType);
+        ArrayList<Sequence> preparedSequences = null;
+        if (pendingSequences == null || pendingSequences.size() == 0) {
+            preparedSequences = sequencesStorage.getPreparedSequences(sequenceType);
+        }
 
+        isSequencePrepared = false;
         final Sequence sequence;
         if (pendingSequences != null && pendingSequences.size() > 0) {
             Logger.d(TAG, "Reusing previously pending sequence of type {}", sequenceType);
@@ -346,6 +317,10 @@ public class DailySequenceService extends RoboService {
                             new ConsistencyException());
                 }
             }
+        } else if (preparedSequences != null && preparedSequences.size() > 0) {
+            Logger.d(TAG, "Using prepared sequence of type {}", sequenceType);
+            sequence = preparedSequences.get(0);
+            isSequencePrepared = true;
         } else {
             Logger.d(TAG, "Creating new sequence of type {}",sequenceType);
             sequence = sequenceBuilder.buildSave(sequenceType);
@@ -363,26 +338,25 @@ public class DailySequenceService extends RoboService {
         sequence.onPreLoaded(null);
 
         // Get a timestamp for the sequence
-        SntpClientCallback sntpCallback = new SntpClientCallback() {
+        NtpTimeCallback ntpCallback = new NtpTimeCallback() {
 
-            private final String TAG = "SntpClientCallback";
+            private final String TAG = "NtpTimeCallback";
 
             @Override
-            public void onTimeReceived(SntpClient sntpClient) {
-                if (sntpClient != null) {
-                    sequence.setNotificationNtpTimestamp(sntpClient.getNow());
+            public void onTimeReceived(boolean success, long ntpTime) {
+                if (success) {
+                    sequence.setNotificationNtpTimestamp(ntpTime);
                     Logger.i(TAG, "Received and saved NTP time for " +
                             "sequence notification");
                 } else {
-                    Logger.e(TAG, "Received successful NTP request but " +
-                            "sntpClient is null");
+                    Logger.e(TAG, "NTP time for sequence notification unavailable");
                 }
             }
 
         };
 
-        Logger.i(TAG, "Launching NTP request");
-        sntpClient.asyncRequestTime(sntpCallback);
+        Logger.i(TAG, "Getting NTP time");
+        ntpTimeService.asyncNow(ntpCallback);
 
         return sequence;
     }
@@ -397,6 +371,7 @@ public class DailySequenceService extends RoboService {
         if (pendingSequences != null && pendingSequences.size() > 0) {
             for (Sequence sequence : pendingSequences) {
                 notificationManager.cancel(sequenceType, sequence.getRecurrentNotificationId());
+                probeExpiryManager.remove(sequence.getId());
                 sequencesStorage.remove(sequence.getId());
             }
         } else {
@@ -0,0 +1,128 @@
+package com.brainydroid.daydreaming.background;
+
+import android.annotation.SuppressLint;
+import android.content.SharedPreferences;
+import android.location.Location;
+import android.os.SystemClock;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Remember the latest fix received by {@link LocationService}, so that
+ * consumers needing a location can use it instead of starting the location
+ * provider.
+ * <p/>
+ * A consumer asks for a fix with {@link #getFreshFix}: if the latest fix is
+ * younger than {@link #MAX_FIX_AGE} and at least as accurate as the
+ * consumer needs, it is served straight away (a hit), otherwise the
+ * consumer starts {@link LocationService} as before (a miss). Fixes are
+ * only kept in memory, since a fix from a previous process would be too old
+ * anyway.
+ * <p/>
+ * Hit and miss counters are kept along with the listening time saved by
+ * hits, see {@link #getMetricsString()}.
+ *
+ * @author Sébastien Lerique
+ * @author Vincent Adam
+ * @see LocationService
+ */
+@Singleton
+public class LocationFixCache {
+
+    private static String TAG = "LocationFixCache";
+
+    /** Oldest fix that can be served. */
+    public static long MAX_FIX_AGE = 2 * 60 * 1000;  // 2 min (in ms)
+    /** Default worst accuracy of a fix that can be served (in meters). */
+    public static float MAX_FIX_ACCURACY = 100;
+
+    private static String PREFIX = "locationFixCache_";
+    private static String METRIC_HITS = PREFIX + "hits";
+    private static String METRIC_MISSES = PREFIX + "misses";
+    private static String METRIC_SAVED_LISTENING = PREFIX + "savedListening";
+
+    private SharedPreferences sharedPreferences;
+    private SharedPreferences.Editor eSharedPreferences;
+
+    private Location latestFix = null;
+    // Value of SystemClock.elapsedRealtime() when latestFix was received
+    private long latestFixReference = -1;
+
+    @SuppressLint("CommitPrefEdits")
+    @Inject
+    public LocationFixCache(SharedPreferences sharedPreferences) {
+        Logger.d(TAG, "LocationFixCache created");
+        this.sharedPreferences = sharedPreferences;
+        eSharedPreferences = sharedPreferences.edit();
+    }
+
+    /**
+     * Record a fix received from the location provider.
+     */
+    public synchronized void put(Location location) {
+        latestFix = location;
+        latestFixReference = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Get the latest fix if it is recent and accurate enough, counting a
+     * hit or a miss.
+     *
+     * @param maxAccuracy Worst acceptable accuracy (in meters)
+     * @return Latest fix, or {@code null} if the location provider must be
+     *         started
+     */
+    public synchronized Location getFreshFix(float maxAccuracy) {
+        if (latestFix == null) {
+            Logger.v(TAG, "No fix received yet");
+            return recordMiss();
+        }
+
+        long age = SystemClock.elapsedRealtime() - latestFixReference;
+        if (age < 0 || age > MAX_FIX_AGE) {
+            Logger.v(TAG, "Latest fix is too old ({0} ms)", age);
+            return recordMiss();
+        }
+        if (!latestFix.hasAccuracy() || latestFix.getAccuracy() > maxAccuracy) {
+            Logger.v(TAG, "Latest fix is not accurate enough");
+            return recordMiss();
+        }
+
+        Logger.d(TAG, "Serving fix received {0} ms ago", age);
+        increment(METRIC_HITS, 1);
+        eSharedPreferences.commit();
+        return latestFix;
+    }
+
+    public synchronized Location getFreshFix() {
+        return getFreshFix(MAX_FIX_ACCURACY);
+    }
+
+    private synchronized Location recordMiss() {
+        increment(METRIC_MISSES, 1);
+        eSharedPreferences.commit();
+        return null;
+    }
+
+    /**
+     * Record the listening time a hit saved, for consumers which know how
+     * long they would have listened for.
+     */
+    public synchronized void addSavedListeningTime(long savedListeningTime) {
+        increment(METRIC_SAVED_LISTENING, savedListeningTime);
+        eSharedPreferences.commit();
+    }
+
+    private synchronized void increment(String metric, long count) {
+        eSharedPreferences.putLong(metric, sharedPreferences.getLong(metric, 0) + count);
+    }
+
+    public synchronized String getMetricsString() {
+        return sharedPreferences.getLong(METRIC_HITS, 0) + " hits, " +
+                sharedPreferences.getLong(METRIC_MISSES, 0) + " misses, " +
+                sharedPreferences.getLong(METRIC_SAVED_LISTENING, 0) / 1000 +
+                " s listening saved";
+    }
+
+}
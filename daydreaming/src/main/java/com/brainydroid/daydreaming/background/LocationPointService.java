@@ -1,7 +1,6 @@
 package com.brainydroid.daydreaming.background;
 
-import android.app.AlarmManager;
-import android.app.PendingIntent;
+import android.content.Context;
 import android.content.Intent;
 import android.location.Location;
 import android.os.IBinder;
@@ -9,8 +8,8 @@ import android.os.SystemClock;
 import com.brainydroid.daydreaming.db.LocationPoint;
 import com.brainydroid.daydreaming.db.LocationPointFactory;
 import com.brainydroid.daydreaming.db.LocationPointsStorage;
-import com.brainydroid.daydreaming.network.SntpClient;
-import com.brainydroid.daydreaming.network.SntpClientCallback;
+import com.brainydroid.daydreaming.network.NtpTimeCallback;
+import com.brainydroid.daydreaming.network.NtpTimeService;
 import com.google.inject.Inject;
 import roboguice.service.RoboService;
 
@@ -28,6 +27,10 @@ import java.util.ArrayList;
  * to start again after {@link #SAMPLE_INTERVAL} milliseconds for the next
  * listening period.
  * <p/>
+ * Those durations are defaults: {@link AdaptiveLocationSampler} lengthens
+ * the interval and shortens the listening while the user doesn't move, and
+ * listening is stopped early once a fix is accurate enough.
+ * <p/>
  * {@link LocationService} is only ever started if data and location
  * accesses are allowed.
  *
@@ -45,6 +48,10 @@ public class LocationPointService extends RoboService {
     public static long LISTENING_TIME = 2 * 60 * 1000;    // 2 min (in ms)
     /** Time to wait before starting to listen again. */
     public static long SAMPLE_INTERVAL = 18 * 60 * 1000;  // 18 min (in ms)
+    /** How early or late listening may start, to share wakeups. */
+    public static long SAMPLE_TOLERANCE = 3 * 60 * 1000;  // 3 min (in ms)
+    /** How early or late listening may stop, to share wakeups. */
+    public static long LISTENING_TOLERANCE = 20 * 1000;  // 20 seconds (in ms)
     /** Extra to set to {@code true} to stop the listening. */
     public static String STOP_LOCATION_LISTENING = "stopLocationListening";
     /** Extra to set to {@code true} to additionally cancel any collecting
@@ -52,13 +59,19 @@ public class LocationPointService extends RoboService {
      */
     public static String CANCEL_COLLECTING_LOCATION_POINTS = "cancelCollectingLocationPoints";
 
-    @Inject SntpClient sntpClient;
+    @Inject NtpTimeService ntpTimeService;
     @Inject LocationPointFactory locationPointFactory;
     LocationPoint locationPoint;
     @Inject LocationPointsStorage locationPointsStorage;
-    @Inject AlarmManager alarmManager;
+    @Inject WakeupCoordinator wakeupCoordinator;
     @Inject StatusManager statusManager;
     @Inject LocationServiceConnection locationServiceConnection;
+    @Inject AdaptiveLocationSampler adaptiveLocationSampler;
+    @Inject LocationFixCache locationFixCache;
+
+    // Whether the location point got its location from LocationFixCache,
+    // and only waits for its timestamp
+    private boolean isWaitingForNtpOnly = false;
 
     // Callback for LocationServiceConnection to stop us and unbind
     // from LocationService.
@@ -105,9 +118,14 @@ public class LocationPointService extends RoboService {
             if (statusManager.isDataAndLocationEnabled()) {
                 Logger.d(TAG, "Data and location are enabled");
 
-                // Don't forget to stop listening after a few minutes
-                startLocationListening();
-                scheduleStopLocationListening();
+                if (startLocationListening()) {
+                    // A recent fix completed the location point, we're done
+                    stopLocationListening(false);
+                    scheduleNextService();
+                } else {
+                    // Don't forget to stop listening after a few minutes
+                    scheduleStopLocationListening();
+                }
             } else {
                 Logger.d(TAG, "Either data or location not enabled");
 
@@ -135,6 +153,8 @@ public class LocationPointService extends RoboService {
      */
     private synchronized void stopLocationListening(boolean cancelCollectingLocationPoints) {
         Logger.d(TAG, "Stopping location listening");
+        // A late NTP callback mustn't stop the next listening
+        isWaitingForNtpOnly = false;
 
         // locationServiceConnection will clear our listener (registered on
         // the LocationService) when it binds to LocationService. We do
@@ -148,6 +168,7 @@ public class LocationPointService extends RoboService {
         // reduced to only one item.
         ArrayList<LocationPoint> collectingLocationPoints =
                 locationPointsStorage.getCollectingLocationPoints();
+        int storedLocationPoints = 0;
 
         if (collectingLocationPoints != null) {
             if (cancelCollectingLocationPoints) {
@@ -165,6 +186,7 @@ public class LocationPointService extends RoboService {
                         collectingLocationPoint.setStatus(
                                 LocationPoint.STATUS_COMPLETED);
                         collectingLocationPoint.flushSaves();
+                        storedLocationPoints++;
                     } else {
                         locationPointsStorage.remove(collectingLocationPoint.getId());
                     }
@@ -181,6 +203,8 @@ public class LocationPointService extends RoboService {
             Logger.v(TAG, "No collecting LocationPoints to set to completed or to cancel");
         }
 
+        adaptiveLocationSampler.onListeningStopped(storedLocationPoints);
+
         // If LocationService is not running there's no need to stop it,
         // we can exit.
         if (!statusManager.isLocationServiceRunning()) {
@@ -217,12 +241,16 @@ public class LocationPointService extends RoboService {
 
     /**
      * Start the {@link LocationService} service and register a listener on
-     * it.
+     * it, unless {@link LocationFixCache} has a recent enough fix.
+     *
+     * @return {@code true} if the location point was completed from a
+     *         recent fix, in which case there is nothing to wait for
      */
-    private synchronized void startLocationListening() {
+    private synchronized boolean startLocationListening() {
         Logger.d(TAG, "Starting location listening");
 
         locationPoint = locationPointFactory.create();
+        isWaitingForNtpOnly = false;
 
         // Mark the location point as not yet uploadable
         Logger.v(TAG, "Setting LocationPoint's status to collecting");
@@ -233,6 +261,12 @@ public class LocationPointService extends RoboService {
         locationPoint.save();
         locationPoint.retainSaves();
 
+        adaptiveLocationSampler.onListeningStarted();
+
+        // We will have stopped ourselves by the time an early stop is
+        // needed, so keep a context to start the stop from.
+        final Context applicationContext = getApplicationContext();
+
         // This will be called by LocationService when it receives location
         // data. It gets registered on the LocationService when the
         // locationServiceConnection binds.
@@ -240,46 +274,93 @@ public class LocationPointService extends RoboService {
 
             private String TAG = "LocationCallback";
 
+            private boolean isStopRequested = false;
+
             @Override
             public void onLocationReceived(Location location) {
                 Logger.i(TAG, "New location received, " +
                         "setting on the locationPoint");
                 locationPoint.setLocation(location);
+
+                if (adaptiveLocationSampler.onFix(location) && !isStopRequested) {
+                    Logger.d(TAG, "Location is accurate enough, stopping listening early");
+                    isStopRequested = true;
+                    adaptiveLocationSampler.onEarlyStop();
+
+                    // Scheduling the next listening replaces the scheduled stop
+                    Intent stopIntent = new Intent(applicationContext,
+                            LocationPointService.class);
+                    stopIntent.putExtra(STOP_LOCATION_LISTENING, true);
+                    applicationContext.startService(stopIntent);
+                }
             }
 
         };
 
         // We also want an accurate timestamp for this location data (i.e.
         // not dependent on the user's settings), so we'll get it with NTP.
-        // This callback is called by the sntpClient when the NTP request
-        // completes.
-        SntpClientCallback sntpCallback = new SntpClientCallback() {
+        // This callback is called by the ntpTimeService when the NTP time
+        // is available.
+        NtpTimeCallback ntpCallback = new NtpTimeCallback() {
 
-            private String TAG = "SntpClientCallback";
+            private String TAG = "NtpTimeCallback";
 
             @Override
-            public void onTimeReceived(SntpClient sntpClient) {
-                Logger.d(TAG, "NTP request completed");
-
-                if (sntpClient != null) {
-                    Logger.i(TAG, "NTP request successful, " +
-                            "setting new time on the locationPoint");
-                    locationPoint.setTimestamp(sntpClient.getNow());
-                } else {
-                    Logger.i(TAG, "NTP request failed, sntpClient is null");
+            public void onTimeReceived(boolean success, long ntpTime) {
+                Logger.d(TAG, "NTP time request completed");
+
+                // Wait for startLocationListening to have checked the cache
+                synchronized (LocationPointService.this) {
+                    if (success) {
+                        Logger.i(TAG, "NTP time available, " +
+                                "setting new time on the locationPoint");
+                        locationPoint.setTimestamp(ntpTime);
+
+                        if (isWaitingForNtpOnly) {
+                            // The location came from the cache, so nothing
+                            // else will stop the listening: do it now
+                            Logger.d(TAG, "LocationPoint completed, stopping listening");
+                            isWaitingForNtpOnly = false;
+                            Intent stopIntent = new Intent(applicationContext,
+                                    LocationPointService.class);
+                            stopIntent.putExtra(STOP_LOCATION_LISTENING, true);
+                            applicationContext.startService(stopIntent);
+                        }
+                    } else {
+                        Logger.i(TAG, "NTP time unavailable");
+                    }
                 }
             }
 
         };
 
+        Logger.d(TAG, "Getting NTP time");
+        ntpTimeService.asyncNow(ntpCallback);
+
+        Location cachedFix = locationFixCache.getFreshFix(
+                AdaptiveLocationSampler.TARGET_ACCURACY);
+        if (cachedFix != null) {
+            Logger.d(TAG, "Recent location available, not starting LocationService");
+            locationPoint.setLocation(cachedFix);
+            adaptiveLocationSampler.onFix(cachedFix);
+            locationFixCache.addSavedListeningTime(adaptiveLocationSampler.getListeningTime());
+            if (locationPoint.isComplete()) {
+                return true;
+            }
+
+            // Wait for the NTP timestamp: the NTP callback stops the
+            // listening once it has set it, or the scheduled stop does if
+            // it never comes
+            Logger.v(TAG, "LocationPoint still needs a timestamp, waiting for it");
+            isWaitingForNtpOnly = true;
+            return false;
+        }
+
         Logger.d(TAG, "Setting locationServiceConnection callbacks");
         locationServiceConnection.setOnServiceConnectedCallback(
                 serviceConnectionCallback);
         locationServiceConnection.setLocationPointCallback(locationCallback);
 
-        Logger.d(TAG, "Starting NTP request");
-        sntpClient.asyncRequestTime(sntpCallback);
-
         // If the service isn't already running, it needs to be started as
         // well as bound, to make sure it stays alive after we unbind. If it
         // is already running, someone else took care of starting it.
@@ -293,49 +374,43 @@ public class LocationPointService extends RoboService {
             Logger.d(TAG, "Binding to LocationService");
             locationServiceConnection.bindLocationService();
         }
+        return false;
     }
 
     /**
      * Schedule the next run of {@link LocationPointService},
-     * after SAMPLE_INTERVAL milliseconds.
+     * after the sampling interval given by {@link AdaptiveLocationSampler}.
      */
     private synchronized void scheduleNextService() {
-        Logger.d(TAG, "Scheduling next location listening");
+        long sampleInterval = adaptiveLocationSampler.getSampleInterval();
+        Logger.d(TAG, "Scheduling next location listening in {0} ms", sampleInterval);
 
         // Build the scheduled time
-        long scheduledTime = SystemClock.elapsedRealtime() + SAMPLE_INTERVAL;
+        long scheduledTime = SystemClock.elapsedRealtime() + sampleInterval;
 
-        // Create the PendingIntent. Any previous one is cancelled.
+        // Any previously scheduled start or stop is replaced
         Intent intent = new Intent(this, LocationPointService.class);
-        PendingIntent pendingIntent = PendingIntent.getService(this, 0,
-                intent, PendingIntent.FLAG_CANCEL_CURRENT);
-
-        // And set the alarm
-        alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP,
-                scheduledTime, pendingIntent);
+        wakeupCoordinator.schedule(TAG, intent, scheduledTime, SAMPLE_TOLERANCE, true);
     }
 
     /**
      * Schedule the end of the listening to location updates,
-     * when we stop the LocationService after LISTENING_TIME.
+     * when we stop the LocationService after the listening time given by
+     * {@link AdaptiveLocationSampler}.
      */
     private synchronized void scheduleStopLocationListening() {
-        Logger.d(TAG, "Scheduling stopping of location listening");
+        long listeningTime = adaptiveLocationSampler.getListeningTime();
+        Logger.d(TAG, "Scheduling stopping of location listening in {0} ms", listeningTime);
 
         // Build the scheduled time
-        long scheduledTime = SystemClock.elapsedRealtime() + LISTENING_TIME;
+        long scheduledTime = SystemClock.elapsedRealtime() + listeningTime;
 
-        // Create the PendingIntent with a flag telling
-        // LocationPointService to stop the listening. Any previous
-        // PendingIntent is cancelled.
+        // Schedule ourselves with a flag telling LocationPointService to
+        // stop the listening. Any previously scheduled start or stop is
+        // replaced.
         Intent intent = new Intent(this, LocationPointService.class);
         intent.putExtra(STOP_LOCATION_LISTENING, true);
-        PendingIntent pendingIntent = PendingIntent.getService(this, 0,
-                intent, PendingIntent.FLAG_CANCEL_CURRENT);
-
-        // And set the alarm
-        alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP,
-                scheduledTime, pendingIntent);
+        wakeupCoordinator.schedule(TAG, intent, scheduledTime, LISTENING_TOLERANCE, true);
     }
 
 }
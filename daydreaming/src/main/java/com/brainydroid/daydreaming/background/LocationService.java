@@ -36,7 +36,9 @@ import roboguice.service.RoboService;
  * <p/>
  * For further details on how exactly the {@link LocationService} should be
  * started and how to register callbacks on it,
- * see {@link LocationServiceConnection}.
+ * see {@link LocationServiceConnection}. Consumers should first check
+ * {@link LocationFixCache} for a recent enough fix, and only start the
+ * {@link LocationService} if there is none.
  *
  * @author Sébastien Lerique
  * @author Vincent Adam
@@ -59,6 +61,7 @@ public class LocationService extends RoboService {
     private IBinder mBinder = new LocationServiceBinder();
 
     @Inject LocationManager locationManager;
+    @Inject LocationFixCache locationFixCache;
 
     /**
      * {@link IBinder} interface used by {@link LocationServiceConnection}
@@ -217,8 +220,9 @@ public class LocationService extends RoboService {
             public void onLocationChanged(Location location) {
                 Logger.d(TAG, "New location received");
 
-                // Remember location
+                // Remember location, also for consumers to come
                 lastLocation = location;
+                locationFixCache.put(location);
 
                 // Send the location data to the LocationPointService
                 if (locationPointCallback != null) {
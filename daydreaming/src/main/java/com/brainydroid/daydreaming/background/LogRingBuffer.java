@@ -0,0 +1,98 @@
+package com.brainydroid.daydreaming.background;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Keep the last log records in memory, to attach them to crash reports.
+ * <p/>
+ * Records are kept unformatted in a fixed-size circular array: adding a
+ * record only stores its fields, and message patterns are only formatted
+ * when the buffer is dumped. Arguments are stored as strings (except
+ * immutable ones like numbers), so that the buffer doesn't keep objects
+ * alive and shows them as they were when logged. Once the buffer is full,
+ * each new record overwrites the oldest one.
+ *
+ * @author Sébastien Lerique
+ * @author Vincent Adam
+ * @see Logger
+ */
+public class LogRingBuffer {
+
+    private final long[] times;
+    private final char[] levels;
+    private final String[] tags;
+    private final String[] patterns;
+    private final Object[][] args;
+    private final String[] threads;
+
+    private int next = 0;
+    private int count = 0;
+
+    public LogRingBuffer(int size) {
+        times = new long[size];
+        levels = new char[size];
+        tags = new String[size];
+        patterns = new String[size];
+        args = new Object[size][];
+        threads = new String[size];
+    }
+
+    public synchronized void add(char level, String tag, String pattern, Object[] messageArgs) {
+        times[next] = System.currentTimeMillis();
+        levels[next] = level;
+        tags[next] = tag;
+        patterns[next] = pattern;
+        args[next] = snapshot(messageArgs);
+        threads[next] = Thread.currentThread().getName();
+
+        next = (next + 1) % times.length;
+        if (count < times.length) {
+            count++;
+        }
+    }
+
+    /**
+     * Format all the records, oldest first, one per line.
+     */
+    public synchronized String dump() {
+        SimpleDateFormat timeFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        StringBuilder dump = new StringBuilder();
+        int first = (next - count + times.length) % times.length;
+        for (int i = 0; i < count; i++) {
+            int index = (first + i) % times.length;
+            dump.append(timeFormat.format(new Date(times[index])))
+                    .append(' ').append(levels[index])
+                    .append('/').append(tags[index])
+                    .append(" [").append(threads[index]).append("] ")
+                    .append(Logger.format(patterns[index], args[index]))
+                    .append('\n');
+        }
+        return dump.toString();
+    }
+
+    private static Object[] snapshot(Object[] messageArgs) {
+        if (messageArgs == null) {
+            return null;
+        }
+
+        Object[] snapshot = new Object[messageArgs.length];
+        for (int i = 0; i < messageArgs.length; i++) {
+            Object arg = messageArgs[i];
+            if (arg == null || arg instanceof Number || arg instanceof Boolean ||
+                    arg instanceof Character || arg instanceof String) {
+                // Immutable, and keeps its MessageFormat formatting
+                snapshot[i] = arg;
+            } else {
+                try {
+                    snapshot[i] = String.valueOf(arg);
+                } catch (RuntimeException e) {
+                    snapshot[i] = "<" + e.getClass().getSimpleName() + " in toString()>";
+                }
+            }
+        }
+        return snapshot;
+    }
+
+}
@@ -5,15 +5,31 @@ import android.util.Log;
 import android.widget.Toast;
 
 import java.text.MessageFormat;
+import java.util.Arrays;
 
 /**
  * Log required information if the application configuration requires so.
+ * <p/>
+ * Levels disabled in {@link LoggerConfig} cost nothing: the flags are
+ * constants, and calls with up to three arguments have their own overloads
+ * so that no varargs array is allocated before the level is checked.
+ * Messages are only formatted when they are written to logcat.
+ * <p/>
+ * If {@link LoggerConfig#RING_BUFFER_SIZE} is positive, the last records are
+ * also kept in a {@link LogRingBuffer}, which is attached to crash reports
+ * (see {@link #getRecentRecords()}). Info, debug and verbose records only go
+ * to logcat if {@link LoggerConfig#LOGCAT} is set.
  *
  * @author Sébastien Lerique
  * @author Vincent Adam
  */
 public class Logger {
 
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private static final LogRingBuffer ringBuffer = LoggerConfig.RING_BUFFER_SIZE > 0 ?
+            new LogRingBuffer(LoggerConfig.RING_BUFFER_SIZE) : null;
+
     /**
      * Log at Error level.
      *
@@ -23,11 +39,28 @@ public class Logger {
      */
     public static void e(String tag, String messagePattern,
                          Object... messageArgs) {
-        Log.e(tag, MessageFormat.format(messagePattern, messageArgs));
+        log(Log.ERROR, tag, messagePattern, messageArgs);
+    }
+
+    public static void e(String tag, String messagePattern) {
+        log(Log.ERROR, tag, messagePattern, NO_ARGS);
+    }
+
+    public static void e(String tag, String messagePattern, Object arg0) {
+        log(Log.ERROR, tag, messagePattern, spread(arg0));
+    }
+
+    public static void e(String tag, String messagePattern, Object arg0, Object arg1) {
+        log(Log.ERROR, tag, messagePattern, new Object[] {arg0, arg1});
+    }
+
+    public static void e(String tag, String messagePattern, Object arg0, Object arg1,
+                         Object arg2) {
+        log(Log.ERROR, tag, messagePattern, new Object[] {arg0, arg1, arg2});
     }
 
     public static void eRaw(String tag, String message) {
-        Log.e(tag, message);
+        log(Log.ERROR, tag, message, null);
     }
 
     /**
@@ -39,11 +72,28 @@ public class Logger {
      */
     public static void w(String tag, String messagePattern,
                          Object... messageArgs) {
-        Log.w(tag, MessageFormat.format(messagePattern, messageArgs));
+        log(Log.WARN, tag, messagePattern, messageArgs);
+    }
+
+    public static void w(String tag, String messagePattern) {
+        log(Log.WARN, tag, messagePattern, NO_ARGS);
+    }
+
+    public static void w(String tag, String messagePattern, Object arg0) {
+        log(Log.WARN, tag, messagePattern, spread(arg0));
+    }
+
+    public static void w(String tag, String messagePattern, Object arg0, Object arg1) {
+        log(Log.WARN, tag, messagePattern, new Object[] {arg0, arg1});
+    }
+
+    public static void w(String tag, String messagePattern, Object arg0, Object arg1,
+                         Object arg2) {
+        log(Log.WARN, tag, messagePattern, new Object[] {arg0, arg1, arg2});
     }
 
     public static void wRaw(String tag, String message) {
-        Log.w(tag, message);
+        log(Log.WARN, tag, message, null);
     }
 
     /**
@@ -55,12 +105,28 @@ public class Logger {
      */
     public static void i(String tag, String messagePattern,
                          Object... messageArgs) {
-        if (LoggerConfig.LOGI) Log.i(tag, MessageFormat.format(messagePattern,
-                messageArgs));
+        if (LoggerConfig.LOGI) log(Log.INFO, tag, messagePattern, messageArgs);
+    }
+
+    public static void i(String tag, String messagePattern) {
+        if (LoggerConfig.LOGI) log(Log.INFO, tag, messagePattern, NO_ARGS);
+    }
+
+    public static void i(String tag, String messagePattern, Object arg0) {
+        if (LoggerConfig.LOGI) log(Log.INFO, tag, messagePattern, spread(arg0));
+    }
+
+    public static void i(String tag, String messagePattern, Object arg0, Object arg1) {
+        if (LoggerConfig.LOGI) log(Log.INFO, tag, messagePattern, new Object[] {arg0, arg1});
+    }
+
+    public static void i(String tag, String messagePattern, Object arg0, Object arg1,
+                         Object arg2) {
+        if (LoggerConfig.LOGI) log(Log.INFO, tag, messagePattern, new Object[] {arg0, arg1, arg2});
     }
 
     public static void iRaw(String tag, String message) {
-        if (LoggerConfig.LOGI) Log.i(tag, message);
+        if (LoggerConfig.LOGI) log(Log.INFO, tag, message, null);
     }
 
     /**
@@ -72,12 +138,28 @@ public class Logger {
      */
     public static void d(String tag, String messagePattern,
                          Object... messageArgs) {
-        if (LoggerConfig.LOGD) Log.d(tag, MessageFormat.format(messagePattern,
-                messageArgs));
+        if (LoggerConfig.LOGD) log(Log.DEBUG, tag, messagePattern, messageArgs);
+    }
+
+    public static void d(String tag, String messagePattern) {
+        if (LoggerConfig.LOGD) log(Log.DEBUG, tag, messagePattern, NO_ARGS);
+    }
+
+    public static void d(String tag, String messagePattern, Object arg0) {
+        if (LoggerConfig.LOGD) log(Log.DEBUG, tag, messagePattern, spread(arg0));
+    }
+
+    public static void d(String tag, String messagePattern, Object arg0, Object arg1) {
+        if (LoggerConfig.LOGD) log(Log.DEBUG, tag, messagePattern, new Object[] {arg0, arg1});
+    }
+
+    public static void d(String tag, String messagePattern, Object arg0, Object arg1,
+                         Object arg2) {
+        if (LoggerConfig.LOGD) log(Log.DEBUG, tag, messagePattern, new Object[] {arg0, arg1, arg2});
     }
 
     public static void dRaw(String tag, String message) {
-        if (LoggerConfig.LOGD) Log.d(tag, message);
+        if (LoggerConfig.LOGD) log(Log.DEBUG, tag, message, null);
     }
 
     /**
@@ -89,12 +171,28 @@ public class Logger {
      */
     public static void v(String tag, String messagePattern,
                          Object... messageArgs) {
-        if (LoggerConfig.LOGV) Log.v(tag, MessageFormat.format(messagePattern,
-                messageArgs));
+        if (LoggerConfig.LOGV) log(Log.VERBOSE, tag, messagePattern, messageArgs);
+    }
+
+    public static void v(String tag, String messagePattern) {
+        if (LoggerConfig.LOGV) log(Log.VERBOSE, tag, messagePattern, NO_ARGS);
+    }
+
+    public static void v(String tag, String messagePattern, Object arg0) {
+        if (LoggerConfig.LOGV) log(Log.VERBOSE, tag, messagePattern, spread(arg0));
+    }
+
+    public static void v(String tag, String messagePattern, Object arg0, Object arg1) {
+        if (LoggerConfig.LOGV) log(Log.VERBOSE, tag, messagePattern, new Object[] {arg0, arg1});
+    }
+
+    public static void v(String tag, String messagePattern, Object arg0, Object arg1,
+                         Object arg2) {
+        if (LoggerConfig.LOGV) log(Log.VERBOSE, tag, messagePattern, new Object[] {arg0, arg1, arg2});
     }
 
     public static void vRaw(String tag, String message) {
-        if (LoggerConfig.LOGV) Log.v(tag, message);
+        if (LoggerConfig.LOGV) log(Log.VERBOSE, tag, message, null);
     }
 
     /**
@@ -107,7 +205,7 @@ public class Logger {
     public static void td(Context context, String messagePattern,
                           Object... messageArgs) {
         if (LoggerConfig.TOASTD) Toast.makeText(context,
-                MessageFormat.format(messagePattern, messageArgs),
+                format(messagePattern, messageArgs),
                 Toast.LENGTH_LONG).show();
     }
 
@@ -115,4 +213,63 @@ public class Logger {
         if (LoggerConfig.TOASTD) Toast.makeText(context, message, Toast.LENGTH_LONG).show();
     }
 
+    /**
+     * Get the last records kept in memory, oldest first, or an empty string
+     * if the ring buffer is disabled.
+     */
+    public static String getRecentRecords() {
+        return ringBuffer != null ? ringBuffer.dump() : "";
+    }
+
+    private static void log(int priority, String tag, String messagePattern,
+                            Object[] messageArgs) {
+        if (ringBuffer != null) {
+            ringBuffer.add(getLevelChar(priority), tag, messagePattern, messageArgs);
+        }
+        if (LoggerConfig.LOGCAT || priority >= Log.WARN) {
+            Log.println(priority, tag, format(messagePattern, messageArgs));
+        }
+    }
+
+    /**
+     * Format a message, {@code messageArgs} being {@code null} for raw
+     * messages. Never fails: a broken pattern is shown along with its
+     * arguments, and arguments whose {@code toString()} throws are left out.
+     */
+    static String format(String messagePattern, Object[] messageArgs) {
+        if (messageArgs == null) {
+            return messagePattern;
+        }
+        try {
+            return MessageFormat.format(messagePattern, messageArgs);
+        } catch (RuntimeException e) {
+            try {
+                return messagePattern + " " + Arrays.toString(messageArgs);
+            } catch (RuntimeException e2) {
+                return messagePattern + " <arguments could not be formatted: " +
+                        e2.getClass().getSimpleName() + ">";
+            }
+        }
+    }
+
+    // A single array argument is spread, as it would be through varargs
+    private static Object[] spread(Object arg0) {
+        return arg0 instanceof Object[] ? (Object[])arg0 : new Object[] {arg0};
+    }
+
+    private static char getLevelChar(int priority) {
+        switch (priority) {
+            case Log.ERROR:
+                return 'E';
+            case Log.WARN:
+                return 'W';
+            case Log.INFO:
+                return 'I';
+            case Log.DEBUG:
+                return 'D';
+            default:
+                return 'V';
+        }
+    }
+
 }
@@ -0,0 +1,286 @@
+package com.brainydroid.daydreaming.background;
+
+import android.annotation.SuppressLint;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+
+import com.brainydroid.daydreaming.db.SequencesStorage;
+import com.brainydroid.daydreaming.sequence.Sequence;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+
+/**
+ * Keep the expiry deadlines of all notified {@link Sequence}s, and expire
+ * them with a single alarm.
+ * <p/>
+ * Deadlines are kept in a min-heap persisted to {@link SharedPreferences}
+ * (deadlines are wall-clock times, so that they survive the process being
+ * killed), and only the earliest one is armed through {@link
+ * WakeupCoordinator}. When that alarm goes off, {@link DailySequenceService}
+ * calls {@link #expireDue()}, which marks every sequence due (within {@link
+ * #EXPIRY_TOLERANCE}) and still pending as recently missed in a single
+ * database transaction, then arms the alarm for the next deadline. Adding or
+ * removing a deadline is logarithmic in the number of pending sequences,
+ * whatever their types.
+ *
+ * @author Sébastien Lerique
+ * @author Vincent Adam
+ * @see DailySequenceService
+ */
+@Singleton
+public class ProbeExpiryManager {
+
+    private static String TAG = "ProbeExpiryManager";
+
+    /** How early or late sequences may be expired, to share wakeups. */
+    public static long EXPIRY_TOLERANCE = 30 * 1000;  // 30 seconds (in ms)
+
+    private static String HEAP = "probeExpiryHeap";
+    private static String WAKEUP_KEY = "probeExpiry";
+    private static String ENTRY_SEPARATOR = ",";
+    private static String FIELD_SEPARATOR = ":";
+
+    @Inject SequencesStorage sequencesStorage;
+    @Inject NotificationManager notificationManager;
+    @Inject WakeupCoordinator wakeupCoordinator;
+
+    private Context context;
+    private SharedPreferences sharedPreferences;
+    private SharedPreferences.Editor eSharedPreferences;
+
+    // Lazily loaded from sharedPreferences, heap-ordered on deadlines
+    private ArrayList<Deadline> heap = null;
+
+    @SuppressLint("CommitPrefEdits")
+    @Inject
+    public ProbeExpiryManager(Context context, SharedPreferences sharedPreferences) {
+        Logger.d(TAG, "ProbeExpiryManager created");
+        this.context = context;
+        this.sharedPreferences = sharedPreferences;
+        eSharedPreferences = sharedPreferences.edit();
+    }
+
+    /**
+     * Expire {@code sequence} after {@link Sequence#EXPIRY_DELAY}, replacing
+     * any deadline it already had.
+     */
+    public synchronized void add(Sequence sequence) {
+        int sequenceId = sequence.getId();
+        long deadline = Calendar.getInstance().getTimeInMillis() + Sequence.EXPIRY_DELAY;
+        Logger.d(TAG, "Adding expiry deadline for sequence {0}", sequenceId);
+
+        loadHeap();
+        removeFromHeap(sequenceId);
+        heap.add(new Deadline(deadline, sequenceId));
+        siftUp(heap.size() - 1);
+        saveHeap();
+        armAlarm();
+    }
+
+    /**
+     * Forget the deadline of a sequence which doesn't need to be expired any
+     * more (e.g. it was dismissed or removed).
+     */
+    public synchronized void remove(int sequenceId) {
+        loadHeap();
+        if (removeFromHeap(sequenceId)) {
+            Logger.d(TAG, "Removed expiry deadline for sequence {0}", sequenceId);
+            saveHeap();
+            armAlarm();
+        }
+    }
+
+    /**
+     * Mark all the sequences which are due and still pending as recently
+     * missed, in a single transaction, and cancel their notifications.
+     *
+     * @return Number of sequences expired
+     */
+    public synchronized int expireDue() {
+        final ArrayList<Deadline> due = popDue();
+        final ArrayList<Sequence> expired = new ArrayList<Sequence>();
+
+        sequencesStorage.runInTransaction(new Runnable() {
+
+            @Override
+            public void run() {
+                for (Deadline deadline : due) {
+                    Sequence sequence = sequencesStorage.get(deadline.sequenceId);
+                    if (sequence == null) {
+                        Logger.v(TAG, "Sequence {0} not in DB any more, probably " +
+                                "answered+synced+flushed. No need to expire it.",
+                                deadline.sequenceId);
+                    } else if (!sequence.getStatus().equals(Sequence.STATUS_PENDING)) {
+                        Logger.v(TAG, "Sequence {0} was not pending any more, but {1}. " +
+                                "Not expiring.", deadline.sequenceId, sequence.getStatus());
+                    } else {
+                        sequence.setStatus(Sequence.STATUS_RECENTLY_MISSED);
+                        expired.add(sequence);
+                    }
+                }
+            }
+
+        });
+
+        for (Sequence sequence : expired) {
+            notificationManager.cancel(sequence.getType(),
+                    sequence.getRecurrentNotificationId());
+        }
+
+        Logger.i(TAG, "Expired {0} of {1} due sequences", expired.size(), due.size());
+        armAlarm();
+        return expired.size();
+    }
+
+    /**
+     * Forget the deadlines which are due without expiring their sequences
+     * (e.g. if notification expiry hasn't been explained to the user yet).
+     */
+    public synchronized void discardDue() {
+        ArrayList<Deadline> due = popDue();
+        Logger.d(TAG, "Discarded {0} due deadlines", due.size());
+        armAlarm();
+    }
+
+    public synchronized int getPendingCount() {
+        loadHeap();
+        return heap.size();
+    }
+
+    private synchronized ArrayList<Deadline> popDue() {
+        loadHeap();
+        long limit = Calendar.getInstance().getTimeInMillis() + EXPIRY_TOLERANCE;
+        ArrayList<Deadline> due = new ArrayList<Deadline>();
+        while (!heap.isEmpty() && heap.get(0).time <= limit) {
+            due.add(heap.get(0));
+            removeAt(0);
+        }
+        saveHeap();
+        return due;
+    }
+
+    /**
+     * Arm the expiry alarm for the earliest deadline, or cancel it if there
+     * is none left.
+     */
+    private synchronized void armAlarm() {
+        if (heap.isEmpty()) {
+            Logger.v(TAG, "No deadlines left, cancelling expiry alarm");
+            wakeupCoordinator.cancel(WAKEUP_KEY);
+            return;
+        }
+
+        long delay = Math.max(0, heap.get(0).time - Calendar.getInstance().getTimeInMillis());
+        Logger.d(TAG, "Arming expiry alarm in {0} ms ({1} deadlines)", delay, heap.size());
+
+        Intent intent = new Intent(context, DailySequenceService.class);
+        intent.putExtra(DailySequenceService.SEQUENCE_TYPE, Sequence.TYPE_PROBE);
+        intent.putExtra(DailySequenceService.EXPIRE_PROBE, true);
+        wakeupCoordinator.schedule(WAKEUP_KEY, intent, SystemClock.elapsedRealtime() + delay,
+                EXPIRY_TOLERANCE, true);
+    }
+
+    private synchronized boolean removeFromHeap(int sequenceId) {
+        for (int i = 0; i < heap.size(); i++) {
+            if (heap.get(i).sequenceId == sequenceId) {
+                removeAt(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void removeAt(int index) {
+        Deadline last = heap.remove(heap.size() - 1);
+        if (index < heap.size()) {
+            heap.set(index, last);
+            siftDown(index);
+            siftUp(index);
+        }
+    }
+
+    private synchronized void siftUp(int index) {
+        Deadline deadline = heap.get(index);
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (heap.get(parent).time <= deadline.time) {
+                break;
+            }
+            heap.set(index, heap.get(parent));
+            index = parent;
+        }
+        heap.set(index, deadline);
+    }
+
+    private synchronized void siftDown(int index) {
+        Deadline deadline = heap.get(index);
+        int half = heap.size() / 2;
+        while (index < half) {
+            int child = 2 * index + 1;
+            if (child + 1 < heap.size() && heap.get(child + 1).time < heap.get(child).time) {
+                child++;
+            }
+            if (deadline.time <= heap.get(child).time) {
+                break;
+            }
+            heap.set(index, heap.get(child));
+            index = child;
+        }
+        heap.set(index, deadline);
+    }
+
+    private synchronized void loadHeap() {
+        if (heap != null) {
+            return;
+        }
+
+        heap = new ArrayList<Deadline>();
+        String heapString = sharedPreferences.getString(HEAP, null);
+        if (heapString == null || heapString.length() == 0) {
+            return;
+        }
+
+        // Saved in heap order, so no need to re-heapify
+        try {
+            for (String entry : heapString.split(ENTRY_SEPARATOR)) {
+                String[] fields = entry.split(FIELD_SEPARATOR);
+                heap.add(new Deadline(Long.parseLong(fields[0]), Integer.parseInt(fields[1])));
+            }
+        } catch (RuntimeException e) {
+            Logger.e(TAG, "Could not read saved expiry deadlines, dropping them");
+            heap.clear();
+        }
+    }
+
+    private synchronized void saveHeap() {
+        StringBuilder heapBuilder = new StringBuilder();
+        for (Deadline deadline : heap) {
+            if (heapBuilder.length() > 0) {
+                heapBuilder.append(ENTRY_SEPARATOR);
+            }
+            heapBuilder.append(deadline.time).append(FIELD_SEPARATOR)
+                    .append(deadline.sequenceId);
+        }
+        eSharedPreferences.putString(HEAP, heapBuilder.toString());
+        eSharedPreferences.commit();
+    }
+
+    private static class Deadline {
+
+        private final long time;
+        private final int sequenceId;
+
+        public Deadline(long time, int sequenceId) {
+            this.time = time;
+            this.sequenceId = sequenceId;
+        }
+
+    }
+
+}
@@ -0,0 +1,216 @@
+package com.brainydroid.daydreaming.background;
+
+import android.annotation.SuppressLint;
+import android.content.SharedPreferences;
+
+import com.brainydroid.daydreaming.db.ParametersStorage;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Plan probe notification times a day ahead.
+ * <p/>
+ * Instead of sampling one delay each time a probe is notified, we sample a
+ * chain of delays covering the next {@link #PLAN_HORIZON}, with the same
+ * statistics as before: each delay follows an exponential distribution
+ * shifted by the minimum delay, and is expanded over the user's forbidden
+ * time window (see {@link AllowedTimeWindow#getRespectfulTime}) starting
+ * from the previous probe. The plan is persisted for each mode, and {@link
+ * ProbeSchedulerService} only arms the alarm for its next probe.
+ * <p/>
+ * The plan records the settings it was built with. If the time window or
+ * the time zone changed, planned probes are kept up to the first one falling
+ * out of the new allowed window and the plan is extended again from there;
+ * if the scheduling parameters changed, the plan is rebuilt from now.
+ * Otherwise the plan is kept as it is: notifying a probe only moves on to
+ * the next planned one (see {@link #onProbeNotified()}). If a planned probe
+ * passed without being notified (e.g. rescheduled while the dashboard was
+ * open, or missed while the device was off), the plan is rebuilt from now,
+ * as a new delay was drawn from now before plans existed.
+ *
+ * @author Sébastien Lerique
+ * @author Vincent Adam
+ * @see ProbeSchedulerService
+ */
+@Singleton
+public class ProbeSchedulePlanner {
+
+    private static String TAG = "ProbeSchedulePlanner";
+
+    /** How far ahead probes are planned. */
+    public static long PLAN_HORIZON = 24 * 60 * 60 * 1000;  // 1 day (in ms)
+    /** Maximum number of planned probes, whatever the parameters. */
+    public static int MAX_PLANNED_PROBES = 200;
+
+    private static String PLAN = "probePlan";
+    private static String PLAN_WINDOW = "probePlanWindow";
+    private static String PLAN_DELAYS = "probePlanDelays";
+    private static String SEPARATOR = ",";
+
+    @Inject StatusManager statusManager;
+    @Inject ParametersStorage parametersStorage;
+    @Inject Random random;
+
+    private SharedPreferences sharedPreferences;
+    private SharedPreferences.Editor eSharedPreferences;
+
+    @SuppressLint("CommitPrefEdits")
+    @Inject
+    public ProbeSchedulePlanner(SharedPreferences sharedPreferences) {
+        Logger.d(TAG, "ProbeSchedulePlanner created");
+        this.sharedPreferences = sharedPreferences;
+        eSharedPreferences = sharedPreferences.edit();
+    }
+
+    /**
+     * Get the time at which the next probe should be notified, updating the
+     * plan as needed.
+     *
+     * @param now Current time, in milliseconds from epoch
+     * @param allowedWindow User's current allowed time window
+     * @return Time of the next probe, in milliseconds from epoch
+     */
+    public synchronized long getNextProbeTime(long now, AllowedTimeWindow allowedWindow) {
+        ArrayList<Long> plan = loadPlan();
+
+        String delays = getDelaysSignature();
+        String window = getWindowSignature(allowedWindow);
+        String modeName = statusManager.getCurrentModeName();
+        if (!delays.equals(sharedPreferences.getString(modeName + PLAN_DELAYS, null))) {
+            Logger.d(TAG, "{0} - Scheduling parameters changed, planning from now", modeName);
+            plan.clear();
+        } else if (!window.equals(sharedPreferences.getString(modeName + PLAN_WINDOW, null))) {
+            Logger.d(TAG, "{0} - Time window or zone changed, revalidating plan", modeName);
+            keepAllowedPrefix(plan, allowedWindow);
+        }
+
+        // Notified probes were removed from the plan, so a past probe was
+        // not notified: draw delays from now instead of skipping it
+        if (!plan.isEmpty() && plan.get(0) <= now) {
+            Logger.d(TAG, "{0} - Planned probe passed without being notified, " +
+                    "planning from now", modeName);
+            plan.clear();
+        }
+
+        extendPlan(plan, now, allowedWindow);
+        savePlan(plan, delays, window);
+        return plan.get(0);
+    }
+
+    /**
+     * Remove the probe that was just notified from the plan, so that the
+     * next call to {@link #getNextProbeTime} moves on to the next one.
+     */
+    public synchronized void onProbeNotified() {
+        ArrayList<Long> plan = loadPlan();
+        if (plan.isEmpty()) {
+            Logger.v(TAG, "No planned probe to remove");
+            return;
+        }
+
+        // The head of the plan is the probe the alarm was armed for
+        Logger.d(TAG, "Probe notified, removing it from the plan");
+        plan.remove(0);
+        String modeName = statusManager.getCurrentModeName();
+        savePlan(plan, sharedPreferences.getString(modeName + PLAN_DELAYS, null),
+                sharedPreferences.getString(modeName + PLAN_WINDOW, null));
+    }
+
+    private synchronized void keepAllowedPrefix(ArrayList<Long> plan,
+                                                AllowedTimeWindow allowedWindow) {
+        int kept = 0;
+        while (kept < plan.size() && allowedWindow.isAllowed(plan.get(kept))) {
+            kept++;
+        }
+        Logger.v(TAG, "Keeping {0} of {1} planned probes", kept, plan.size());
+        plan.subList(kept, plan.size()).clear();
+    }
+
+    private synchronized void extendPlan(ArrayList<Long> plan, long now,
+                                         AllowedTimeWindow allowedWindow) {
+        long last = plan.isEmpty() ? now : plan.get(plan.size() - 1);
+        int added = 0;
+        while ((plan.isEmpty() || last < now + PLAN_HORIZON)
+                && plan.size() < MAX_PLANNED_PROBES) {
+            last = allowedWindow.getRespectfulTime(last, sampleDelay());
+            plan.add(last);
+            added++;
+        }
+        Logger.d(TAG, "Added {0} probes to the plan, {1} planned", added, plan.size());
+    }
+
+    /**
+     * Sample a delay following an exponential distribution with parameter
+     * {@code 1 / meanDelay}, shifted by {@code minDelay}.
+     *
+     * @return Sampled delay in milliseconds
+     */
+    private synchronized long sampleDelay() {
+        // Delays are given in seconds by the parameters
+        long minDelayMilli = 1000L * parametersStorage.getSchedulingMinDelay();
+        long meanDelayMilli = 1000L * parametersStorage.getSchedulingMeanDelay();
+        return (long)(minDelayMilli -
+                Math.log(random.nextDouble()) * (meanDelayMilli - minDelayMilli));
+    }
+
+    private synchronized String getDelaysSignature() {
+        return parametersStorage.getSchedulingMinDelay() + SEPARATOR +
+                parametersStorage.getSchedulingMeanDelay();
+    }
+
+    private synchronized String getWindowSignature(AllowedTimeWindow allowedWindow) {
+        return allowedWindow.toString() + SEPARATOR + TimeZone.getDefault().getID();
+    }
+
+    private synchronized ArrayList<Long> loadPlan() {
+        ArrayList<Long> plan = new ArrayList<Long>();
+        String planString = sharedPreferences.getString(
+                statusManager.getCurrentModeName() + PLAN, null);
+        if (planString == null || planString.length() == 0) {
+            return plan;
+        }
+
+        try {
+            for (String time : planString.split(SEPARATOR)) {
+                plan.add(Long.parseLong(time));
+            }
+        } catch (NumberFormatException e) {
+            Logger.e(TAG, "Could not read saved plan, starting a new one");
+            plan.clear();
+        }
+        return plan;
+    }
+
+    private synchronized void savePlan(ArrayList<Long> plan, String delays, String window) {
+        StringBuilder planBuilder = new StringBuilder();
+        for (Long time : plan) {
+            if (planBuilder.length() > 0) {
+                planBuilder.append(SEPARATOR);
+            }
+            planBuilder.append(time);
+        }
+
+        String modeName = statusManager.getCurrentModeName();
+        eSharedPreferences.putString(modeName + PLAN, planBuilder.toString());
+        eSharedPreferences.putString(modeName + PLAN_DELAYS, delays);
+        eSharedPreferences.putString(modeName + PLAN_WINDOW, window);
+        eSharedPreferences.commit();
+    }
+
+    /**
+     * Forget the plan for the current mode, e.g. when clearing the experiment.
+     */
+    public synchronized void clear() {
+        Logger.d(TAG, "{0} - Clearing plan", statusManager.getCurrentModeName());
+        String modeName = statusManager.getCurrentModeName();
+        eSharedPreferences.remove(modeName + PLAN);
+        eSharedPreferences.remove(modeName + PLAN_DELAYS);
+        eSharedPreferences.remove(modeName + PLAN_WINDOW);
+        eSharedPreferences.commit();
+    }
+
+}
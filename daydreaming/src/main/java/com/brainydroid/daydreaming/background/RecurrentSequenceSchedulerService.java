@@ -1,6 +1,5 @@
 package com.brainydroid.daydreaming.background;
 
-import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
@@ -13,7 +12,6 @@ import android.support.v4.app.NotificationCompat;
 import com.brainydroid.daydreaming.R;
 import com.brainydroid.daydreaming.db.ParametersStorage;
 import com.brainydroid.daydreaming.db.Util;
-import com.brainydroid.daydreaming.sequence.Sequence;
 import com.brainydroid.daydreaming.ui.dashboard.ResultsActivity;
 import com.brainydroid.daydreaming.ui.dashboard.SettingsActivity;
 import com.google.inject.Inject;
@@ -48,14 +46,13 @@ public abstract class RecurrentSequenceSchedulerService extends RoboService {
     protected int startAllowedMinute;
     protected int endAllowedHour;
     protected int endAllowedMinute;
-    protected int allowedSpan;
-    protected int forbiddenSpan;
+    protected AllowedTimeWindow allowedWindow;
 
     @Inject SharedPreferences sharedPreferences;
     @Inject StatusManager statusManager;
     @Inject ParametersStorage parametersStorage;
     @Inject Random random;
-    @Inject AlarmManager alarmManager;
+    @Inject WakeupCoordinator wakeupCoordinator;
     @Inject NotificationManager notificationManager;
 
     @Override
@@ -114,14 +111,15 @@ public abstract class RecurrentSequenceSchedulerService extends RoboService {
         // Generate the time at which the sequence will appear
         long scheduledTime = generateTime();
 
-        // Create and schedule the PendingIntent for DailySequenceService
+        // Schedule DailySequenceService, on time: this is what we're sampling
         Intent intent = new Intent(this, DailySequenceService.class);
         intent.putExtra(DailySequenceService.SEQUENCE_TYPE, getSequenceType());
-        PendingIntent pendingIntent = PendingIntent.getService(this,
-                Sequence.getRecurrentRequestCode(getSequenceType()),
-                intent, PendingIntent.FLAG_UPDATE_CURRENT);
-        alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP,
-                scheduledTime, pendingIntent);
+        wakeupCoordinator.schedule(getWakeupKey(getSequenceType()), intent, scheduledTime,
+                0, true);
+    }
+
+    private static String getWakeupKey(String sequenceType) {
+        return "schedule_" + sequenceType;
     }
 
     protected abstract long generateTime();
@@ -153,24 +151,8 @@ public abstract class RecurrentSequenceSchedulerService extends RoboService {
                 endAllowedHour, endAllowedMinute);
 
         // Convert those to a usable format
-        Calendar start = (Calendar)now.clone();
-        start.set(Calendar.HOUR_OF_DAY, startAllowedHour);
-        start.set(Calendar.MINUTE, startAllowedMinute);
-
-        Calendar end = (Calendar)now.clone();
-        end.set(Calendar.HOUR_OF_DAY, endAllowedHour);
-        end.set(Calendar.MINUTE, endAllowedMinute);
-        if (endAllowedHour * 60 + endAllowedMinute <
-                startAllowedHour * 60 + startAllowedMinute) {
-            // The time window goes through midnight. Account for this in
-            // our end Calendar object.
-            end.add(Calendar.DAY_OF_YEAR, 1);
-        }
-
-        // Compute the span of our allowed and forbidden time windows
-        allowedSpan = (int)end.getTimeInMillis() -
-                (int)start.getTimeInMillis();
-        forbiddenSpan = 24 * 60 * 60 * 1000 - allowedSpan;
+        allowedWindow = new AllowedTimeWindow(startAllowedHour, startAllowedMinute,
+                endAllowedHour, endAllowedMinute);
     }
 
 
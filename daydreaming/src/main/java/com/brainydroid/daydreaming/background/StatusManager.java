@@ -17,11 +17,15 @@ import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationCompat;
 
 import com.brainydroid.daydreaming.R;
+import com.brainydroid.daydreaming.db.LocationPoint;
 import com.brainydroid.daydreaming.db.LocationPointsStorage;
 import com.brainydroid.daydreaming.db.ParametersStorage;
 import com.brainydroid.daydreaming.db.ProfileStorage;
 import com.brainydroid.daydreaming.db.SequencesStorage;
+import com.brainydroid.daydreaming.db.Storage;
 import com.brainydroid.daydreaming.network.CryptoStorage;
+import com.brainydroid.daydreaming.network.HttpRetryManager;
+import com.brainydroid.daydreaming.network.ServerTalker;
 import com.brainydroid.daydreaming.sequence.Sequence;
 import com.brainydroid.daydreaming.ui.dashboard.BEQActivity;
 import com.google.inject.Inject;
@@ -34,6 +38,14 @@ import java.util.Calendar;
 /**
  * Manage global application status (like first launch) and collect
  * information on the device's status.
+ * <p/>
+ * This is queried from every service, receiver and activity, so readers
+ * don't lock: the current mode and the volatile flags are held in memory,
+ * and persisted status is read from {@link SharedPreferences}' own
+ * in-memory copy. Writers still synchronize on the instance, so that
+ * compound updates (e.g. switching modes) are not interleaved, and persist
+ * asynchronously with {@link SharedPreferences.Editor#apply()}, which keeps
+ * writes in order.
  *
  * @author Sébastien Lerique
  * @author Vincent Adam
@@ -68,12 +80,21 @@ public class StatusManager {
     /** Preference key storing latest retrieved ntp timestamp */
     @SuppressWarnings("FieldCanBeLocal")
     private static String LATEST_NTP_TIMESTAMP = "latestNtpTimestamp";
+    /** Preference keys storing the local clocks corresponding to the latest ntp timestamp */
+    private static String LATEST_NTP_ELAPSED_REFERENCE = "latestNtpElapsedReference";
+    private static String LATEST_NTP_SYSTEM_REFERENCE = "latestNtpSystemReference";
 
     private static String LATEST_DAILY_SERVICE_SYSTEM_TIMESTAMP =
             "latestSchedulerServiceSystemTimestamp";
     private static String LATEST_LOCATION_POINT_SERVICE_SYSTEM_TIMESTAMP =
             "latestLocationPointServiceSystemTimestamp";
 
+    /** Preference keys storing notification latencies, for built and prepared sequences */
+    private static String NOTIFICATION_LATENCY_BUILT = "notificationLatencyBuilt";
+    private static String NOTIFICATION_LATENCY_PREPARED = "notificationLatencyPrepared";
+    private static String LATENCY_COUNT = "Count";
+    private static String LATENCY_TOTAL = "Total";
+
     /** Preference key storing the current mode */
     private static String EXP_CURRENT_MODE = "expCurrentMode";
 
@@ -83,6 +104,8 @@ public class StatusManager {
     private static String CURRENT_BEG_END_QUESTIONNAIRE_TYPE = "currentBEQType";
 
     private static String RESULTS_DOWNLOADED = "resultsDownloaded";
+    private static String RESULTS_ETAG = "resultsETag";
+    private static String RESULTS_LAST_MODIFIED = "resultsLastModified";
     public static String NOTIFICATION_EXPIRY_EXPLAINED = "notificationExpiryExplained";
     public static String GLOSSARY_EXPLAINED = "glossaryExplained";
     public static String EQ_EDIT_ACTIVITIES_EXPLAINED = "eqEditActivitiesExplained";
@@ -106,15 +129,17 @@ public class StatusManager {
     /** Delay in days after which probes should not be scheduled if begin questionnaires are unanswered*/
     public static int DELAY_TO_ANSWER_BEGQ = 3;
 
-    private int cachedCurrentMode = MODE_DEFAULT;
-    private boolean isDashboardRunning = false;
-    private long isDashboardRunningTimestamp = -1;
-    private boolean isParametersSyncRunning = false;
-    private boolean isRegistrationRunning = false;
-    private boolean isSequencesSyncRunning = false;
-    private boolean isLocationPointsSyncRunning = false;
-    private boolean isProfileSyncRunning = false;
-    private long isSyncRunningTimestamp = -1;
+    // Read without locking, see class documentation
+    private volatile int cachedCurrentMode = MODE_DEFAULT;
+    private volatile String cachedCurrentModeName = MODE_NAME_PROD;
+    private volatile boolean isDashboardRunning = false;
+    private volatile long isDashboardRunningTimestamp = -1;
+    private volatile boolean isParametersSyncRunning = false;
+    private volatile boolean isRegistrationRunning = false;
+    private volatile boolean isSequencesSyncRunning = false;
+    private volatile boolean isLocationPointsSyncRunning = false;
+    private volatile boolean isProfileSyncRunning = false;
+    private volatile long isSyncRunningTimestamp = -1;
 
     /**
      * Delay below which we don't need to re-sync data to servers (in
@@ -130,10 +155,18 @@ public class StatusManager {
     @Inject ActivityManager activityManager;
     // Use providers here to prevent circular dependencies
     @Inject Provider<ProfileStorage> profileStorageProvider;
+    @Inject Provider<Storage> storageProvider;
     @Inject Provider<SequencesStorage> sequencesStorageProvider;
     @Inject Provider<LocationPointsStorage> locationPointsStorageProvider;
     @Inject Provider<ParametersStorage> parametersStorageProvider;
     @Inject Provider<CryptoStorage> cryptoStorageProvider;
+    @Inject Provider<HttpRetryManager> httpRetryManagerProvider;
+    @Inject Provider<ServerTalker> serverTalkerProvider;
+    @Inject Provider<ProbeSchedulePlanner> probeSchedulePlannerProvider;
+    @Inject Provider<WakeupCoordinator> wakeupCoordinatorProvider;
+    @Inject Provider<AdaptiveLocationSampler> adaptiveLocationSamplerProvider;
+    @Inject Provider<LocationFixCache> locationFixCacheProvider;
+    @Inject Provider<ProbeExpiryManager> probeExpiryManagerProvider;
     @Inject NotificationManager notificationManager;
 
     Context context;
@@ -163,10 +196,19 @@ public class StatusManager {
 
     public String getDebugInfoString() {
         return "app version: " + profileStorageProvider.get().getAppVersionName()
-                + "\nparameters version: " + profileStorageProvider.get().getParametersVersion();
-    }
-
-    public synchronized boolean is(String flagName) {
+                + "\nparameters version: " + profileStorageProvider.get().getParametersVersion()
+                + "\nlatest sync: " + serverTalkerProvider.get().getSyncMetricsString()
+                + "\nsync retries: " + httpRetryManagerProvider.get().getMetricsString()
+                + "\nwakeups: " + wakeupCoordinatorProvider.get().getMetricsString()
+                + "\nlocation sampling: "
+                + adaptiveLocationSamplerProvider.get().getMetricsString()
+                + "\nlocation cache: " + locationFixCacheProvider.get().getMetricsString()
+                + "\nnotifications built: "
+                + getNotificationLatencyString(NOTIFICATION_LATENCY_BUILT)
+                + ", prepared: " + getNotificationLatencyString(NOTIFICATION_LATENCY_PREPARED);
+    }
+
+    public boolean is(String flagName) {
         if (sharedPreferences.getBoolean(getCurrentModeName() + flagName, false)) {
             Logger.d(TAG, "{0} - {1} flag is set", getCurrentModeName(), flagName);
             return true;
@@ -183,13 +225,13 @@ public class StatusManager {
     public synchronized void clear(String flagName) {
         Logger.d(TAG, "{0} - Clearing {1} flag", getCurrentModeName(), flagName);
         eSharedPreferences.remove(getCurrentModeName() + flagName);
-        eSharedPreferences.commit();
+        eSharedPreferences.apply();
     }
 
     public synchronized void set(String flagName, boolean value) {
         Logger.d(TAG, "{0} - Setting {1} flag to {2}", getCurrentModeName(), flagName, value);
         eSharedPreferences.putBoolean(getCurrentModeName() + flagName, value);
-        eSharedPreferences.commit();
+        eSharedPreferences.apply();
     }
 
     public synchronized void setResultsDownloadedToNow() {
@@ -197,10 +239,10 @@ public class StatusManager {
 
         eSharedPreferences.putLong(getCurrentModeName() + RESULTS_DOWNLOADED,
                 Calendar.getInstance().getTimeInMillis());
-        eSharedPreferences.commit();
+        eSharedPreferences.apply();
     }
 
-    public synchronized long getResultsDownloadTimestamp() {
+    public long getResultsDownloadTimestamp() {
         long timestamp = sharedPreferences.getLong(getCurrentModeName() + RESULTS_DOWNLOADED, -1);
         if (timestamp == -1) {
             Logger.v(TAG, "{} - Results not yet downloaded", getCurrentModeName());
@@ -215,16 +257,47 @@ public class StatusManager {
         Logger.d(TAG, "{} - Clearing resultsDownloaded", getCurrentModeName());
 
         eSharedPreferences.remove(getCurrentModeName() + RESULTS_DOWNLOADED);
-        eSharedPreferences.commit();
+        eSharedPreferences.remove(getCurrentModeName() + RESULTS_ETAG);
+        eSharedPreferences.remove(getCurrentModeName() + RESULTS_LAST_MODIFIED);
+        eSharedPreferences.apply();
+    }
+
+    /**
+     * Save the HTTP validators of the cached results ({@code null} if the
+     * server didn't send them).
+     */
+    public synchronized void setResultsValidators(String eTag, String lastModified) {
+        Logger.d(TAG, "{0} - Setting results validators", getCurrentModeName());
+
+        if (eTag != null) {
+            eSharedPreferences.putString(getCurrentModeName() + RESULTS_ETAG, eTag);
+        } else {
+            eSharedPreferences.remove(getCurrentModeName() + RESULTS_ETAG);
+        }
+        if (lastModified != null) {
+            eSharedPreferences.putString(getCurrentModeName() + RESULTS_LAST_MODIFIED,
+                    lastModified);
+        } else {
+            eSharedPreferences.remove(getCurrentModeName() + RESULTS_LAST_MODIFIED);
+        }
+        eSharedPreferences.apply();
     }
 
-    public synchronized void setDashboardRunning(boolean running) {
+    public String getResultsETag() {
+        return sharedPreferences.getString(getCurrentModeName() + RESULTS_ETAG, null);
+    }
+
+    public String getResultsLastModified() {
+        return sharedPreferences.getString(getCurrentModeName() + RESULTS_LAST_MODIFIED, null);
+    }
+
+    public void setDashboardRunning(boolean running) {
         Logger.v(TAG, "Setting isDashboardRunning to {}", running);
         isDashboardRunning = true;
         isDashboardRunningTimestamp = Calendar.getInstance().getTimeInMillis();
     }
 
-    public synchronized boolean isDashboardRunning() {
+    public boolean isDashboardRunning() {
         long now = Calendar.getInstance().getTimeInMillis();
         // Dashboard is running, and we have that information from less than 1 minute ago
         return isDashboardRunning && (now - isDashboardRunningTimestamp < 1 * 60 * 1000);
@@ -236,7 +309,7 @@ public class StatusManager {
      * @return {@code true} if the parameters have been updated,
      *         {@code false} otherwise
      */
-    public synchronized boolean areParametersUpdated() {
+    public boolean areParametersUpdated() {
         if (sharedPreferences.getBoolean(getCurrentModeName() + EXP_STATUS_PARAMETERS_UPDATED,
                 false)) {
             Logger.d(TAG, "{} - Parameters are updated", getCurrentModeName());
@@ -254,7 +327,7 @@ public class StatusManager {
         Logger.d(TAG, "{0} - Setting parameters updated to {1}", getCurrentModeName(), updated);
 
         eSharedPreferences.putBoolean(getCurrentModeName() + EXP_STATUS_PARAMETERS_UPDATED, updated);
-        eSharedPreferences.commit();
+        eSharedPreferences.apply();
 
         // (Re)create BEQ notification if necessary
         updateBEQNotification();
@@ -267,7 +340,7 @@ public class StatusManager {
         Logger.d(TAG, "{} - Clearing parameters updated", getCurrentModeName());
 
         eSharedPreferences.remove(getCurrentModeName() + EXP_STATUS_PARAMETERS_UPDATED);
-        eSharedPreferences.commit();
+        eSharedPreferences.apply();
     }
 
     /**
@@ -276,7 +349,7 @@ public class StatusManager {
      * @return {@code true} if {@link LocationService} is running,
      *         {@code false} otherwise
      */
-    public synchronized boolean isLocationServiceRunning() {
+    public boolean isLocationServiceRunning() {
         // This hack was found on StackOverflow
         for (RunningServiceInfo service :
                 activityManager.getRunningServices(Integer.MAX_VALUE)) {
@@ -297,7 +370,7 @@ public class StatusManager {
      * @return {@code true} if the network location provider is enabled,
      *         {@code false} otherwise
      */
-    public synchronized boolean isNetworkLocEnabled() {
+    public boolean isNetworkLocEnabled() {
         if (locationManager.isProviderEnabled(
                 LocationManager.NETWORK_PROVIDER)) {
             Logger.d(TAG, "Network location is enabled");
@@ -314,7 +387,7 @@ public class StatusManager {
      * @return {@code true} if data connection is enabled or connecting,
      *         {@code false} otherwise
      */
-    public synchronized boolean isDataEnabled() {
+    public boolean isDataEnabled() {
         NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
         if (networkInfo != null && networkInfo.isConnectedOrConnecting()) {
             Logger.d(TAG, "Data is enabled");
@@ -333,7 +406,7 @@ public class StatusManager {
      *         data connection is enabled or connecting,
      *         {@code false} otherwise
      */
-    public synchronized boolean isDataAndLocationEnabled() {
+    public boolean isDataAndLocationEnabled() {
         if (isNetworkLocEnabled() && isDataEnabled()) {
             Logger.d(TAG, "Data and network location are enabled");
             return true;
@@ -350,7 +423,7 @@ public class StatusManager {
         long now = Calendar.getInstance().getTimeInMillis();
         Logger.d(TAG, "{} - Setting last sync timestamp to now", getCurrentModeName());
         eSharedPreferences.putLong(getCurrentModeName() + LAST_SYNC_TIMESTAMP, now);
-        eSharedPreferences.commit();
+        eSharedPreferences.apply();
     }
 
     /**
@@ -360,13 +433,13 @@ public class StatusManager {
         long now = Calendar.getInstance().getTimeInMillis();
         Logger.d(TAG, "{} - Setting last MQ notif timestamp to now", getCurrentModeName());
         eSharedPreferences.putLong(getCurrentModeName() + LAST_MORNING_Q_TIMESTAMP, now);
-        eSharedPreferences.commit();
+        eSharedPreferences.apply();
     }
 
     /**
      * Check if a morning questionnaire notification was long ago.
      */
-    public synchronized boolean isLastMQNotifLongAgo() {
+    public boolean isLastMQNotifLongAgo() {
         long delay = 18 * 3600 * 1000;  // 24h - 3h - 3h = 18h (in milliseconds)
         long threshold = sharedPreferences.getLong(getCurrentModeName() + LAST_MORNING_Q_TIMESTAMP, - delay) + delay;
         if (threshold < Calendar.getInstance().getTimeInMillis()) {
@@ -389,7 +462,7 @@ public class StatusManager {
      * @return {@code boolean} indicating if the last sync operation was long
      *         ago or not
      */
-    public synchronized boolean isLastSyncLongAgo() {
+    public boolean isLastSyncLongAgo() {
         // If last sync timestamp is present, make sure now is after the
         // threshold to force a sync.
         int syncDelay = getSyncDelay();
@@ -404,7 +477,7 @@ public class StatusManager {
         }
     }
 
-    private synchronized int getSyncDelay() {
+    private int getSyncDelay() {
         if (getCurrentMode() == MODE_PROD) {
             Logger.v(TAG, "Using production sync delay");
             return SYNC_DELAY_PROD;
@@ -414,27 +487,27 @@ public class StatusManager {
         }
     }
 
-    public synchronized long getExperimentStartTimestamp() {
+    public long getExperimentStartTimestamp() {
         return sharedPreferences.getLong(getCurrentModeName() + EXP_START_TIMESTAMP, -1);
     }
 
     public synchronized void setExperimentStartTimestamp(long timestamp) {
         Logger.d(TAG, "{0} - Setting experiment start timestamp to {1}", getCurrentModeName(), timestamp);
         eSharedPreferences.putLong(getCurrentModeName() + EXP_START_TIMESTAMP, timestamp);
-        eSharedPreferences.commit();
+        eSharedPreferences.apply();
     }
 
     private synchronized void clearExperimentStartTimestamp() {
         Logger.d(TAG, "{} - Clearing experiment start timestamp", getCurrentModeName());
         eSharedPreferences.remove(getCurrentModeName() + EXP_START_TIMESTAMP);
-        eSharedPreferences.commit();
+        eSharedPreferences.apply();
     }
 
     public synchronized void setLatestDailyServiceSystemTimestampToNow() {
         Logger.d(TAG, "Setting last time DailySequenceService ran to now (system timestamp)");
         eSharedPreferences.putLong(LATEST_DAILY_SERVICE_SYSTEM_TIMESTAMP,
                 Calendar.getInstance().getTimeInMillis());
-        eSharedPreferences.commit();
+        eSharedPreferences.apply();
     }
 
     public synchronized void checkLatestDailyWasAgesAgo() {
@@ -458,7 +531,7 @@ public class StatusManager {
         Logger.d(TAG, "Setting last time LocationPointService ran to now (system timestamp)");
         eSharedPreferences.putLong(LATEST_LOCATION_POINT_SERVICE_SYSTEM_TIMESTAMP,
                 Calendar.getInstance().getTimeInMillis());
-        eSharedPreferences.commit();
+        eSharedPreferences.apply();
     }
 
     public synchronized void checkLatestLocationPointServiceWasAgesAgo() {
@@ -491,7 +564,7 @@ public class StatusManager {
     public synchronized void setLatestNtpTime(long timestamp) {
         Logger.d(TAG, "Setting latest ntp requested time to {}", timestamp);
         eSharedPreferences.putLong(LATEST_NTP_TIMESTAMP, timestamp);
-        eSharedPreferences.commit();
+        eSharedPreferences.apply();
 
         if (!sharedPreferences.contains(getCurrentModeName() + EXP_START_TIMESTAMP)) {
             Logger.w(TAG, "expStartTimestamp doesn't seem to have been set. " +
@@ -501,17 +574,63 @@ public class StatusManager {
         }
     }
 
-    public synchronized long getLatestNtpTime() {
+    /**
+     * Save the latest NTP time along with the values of
+     * {@code SystemClock.elapsedRealtime()} and {@code System.currentTimeMillis()}
+     * it corresponds to, so that the offset can be reused by a new process.
+     */
+    public synchronized void setLatestNtpTime(long timestamp, long elapsedReference,
+                                              long systemReference) {
+        eSharedPreferences.putLong(LATEST_NTP_ELAPSED_REFERENCE, elapsedReference);
+        eSharedPreferences.putLong(LATEST_NTP_SYSTEM_REFERENCE, systemReference);
+        setLatestNtpTime(timestamp);
+    }
+
+    public long getLatestNtpTime() {
         return sharedPreferences.getLong(LATEST_NTP_TIMESTAMP, -1);
     }
 
+    public long getLatestNtpElapsedReference() {
+        return sharedPreferences.getLong(LATEST_NTP_ELAPSED_REFERENCE, -1);
+    }
+
+    public long getLatestNtpSystemReference() {
+        return sharedPreferences.getLong(LATEST_NTP_SYSTEM_REFERENCE, -1);
+    }
+
+    /**
+     * Record the time taken from the start of {@link DailySequenceService}
+     * to the notification of a sequence.
+     *
+     * @param isPrepared Whether the sequence was prepared ahead of time
+     * @param latency Latency in milliseconds
+     */
+    public synchronized void addNotificationLatency(boolean isPrepared, long latency) {
+        String key = isPrepared ? NOTIFICATION_LATENCY_PREPARED : NOTIFICATION_LATENCY_BUILT;
+        Logger.d(TAG, "Notification latency ({0}): {1} ms",
+                isPrepared ? "prepared" : "built", latency);
+        eSharedPreferences.putLong(key + LATENCY_COUNT,
+                sharedPreferences.getLong(key + LATENCY_COUNT, 0) + 1);
+        eSharedPreferences.putLong(key + LATENCY_TOTAL,
+                sharedPreferences.getLong(key + LATENCY_TOTAL, 0) + latency);
+        eSharedPreferences.apply();
+    }
+
+    private String getNotificationLatencyString(String key) {
+        long count = sharedPreferences.getLong(key + LATENCY_COUNT, 0);
+        long total = sharedPreferences.getLong(key + LATENCY_TOTAL, 0);
+        return count + " (" + (count == 0 ? "-" : Long.toString(total / count)) + " ms)";
+    }
+
     private synchronized void updateCachedCurrentMode() {
         int mode = sharedPreferences.getInt(EXP_CURRENT_MODE, MODE_DEFAULT);
         Logger.d(TAG, "Updating cached mode (is {})", mode);
+        // Update the name first, so that readers never see a new mode with an old name
+        cachedCurrentModeName = mode == MODE_PROD ? MODE_NAME_PROD : MODE_NAME_TEST;
         cachedCurrentMode = mode;
     }
 
-    public synchronized int getCurrentMode() {
+    public int getCurrentMode() {
         return cachedCurrentMode;
     }
 
@@ -522,15 +641,9 @@ public class StatusManager {
         return mode;
     }
 
-    public synchronized String getCurrentModeName() {
-        String modeName;
-        if (getCurrentMode() == MODE_PROD) {
-            modeName = MODE_NAME_PROD;
-        } else {
-            modeName = MODE_NAME_TEST;
-        }
-        Logger.v(TAG, "Current mode name is {}", modeName);
-        return modeName;
+    public String getCurrentModeName() {
+        // Called from every getter in ParametersStorage, so don't log here
+        return cachedCurrentModeName;
     }
 
     /**
@@ -539,16 +652,23 @@ public class StatusManager {
     private synchronized void setCurrentMode(int mode) {
         Logger.d(TAG, "Setting current mode to {}", mode);
         eSharedPreferences.putInt(EXP_CURRENT_MODE, mode);
-        eSharedPreferences.commit();
+        eSharedPreferences.apply();
         updateCachedCurrentMode();
     }
 
     public synchronized void switchToTestMode() {
         Logger.d(TAG, "Doing full switch to test mode");
 
-        // Clear pending uploads (before switch)
-        sequencesStorageProvider.get().removeAllSequences(Sequence.TYPE_PROBE);
-        locationPointsStorageProvider.get().removeUploadableLocationPoints();
+        // Drop what's in flight in the current mode's database (before switch)
+        cancelPendingProbesAndCollectingLocations();
+
+        // Each mode has its own database: start the test experiment from an empty one
+        if (getCurrentMode() != MODE_TEST) {
+            storageProvider.get().deleteDatabase(MODE_NAME_TEST);
+        } else {
+            sequencesStorageProvider.get().removeAllSequences(Sequence.TYPE_PROBE);
+            locationPointsStorageProvider.get().removeUploadableLocationPoints();
+        }
 
         // Do the switch
         setCurrentMode(MODE_TEST);
@@ -562,6 +682,7 @@ public class StatusManager {
         clear(GLOSSARY_EXPLAINED);
         clear(EQ_EDIT_ACTIVITIES_EXPLAINED);
         clearResultsDownloaded();
+        probeSchedulePlannerProvider.get().clear();
 
         // Cancel any running location collection and pending notifications.
         // This is done after the switch to make sure no polls / location collection are
@@ -599,6 +720,7 @@ public class StatusManager {
         clear(GLOSSARY_EXPLAINED);
         clear(EQ_EDIT_ACTIVITIES_EXPLAINED);
         clearResultsDownloaded();
+        probeSchedulePlannerProvider.get().clear();
 
         // Clear crypto storage to force a new handshake
         cryptoStorageProvider.get().clearStore();
@@ -611,9 +733,10 @@ public class StatusManager {
     public synchronized void switchToProdMode() {
         Logger.d(TAG, "Doing full switch to production mode");
 
-        // Clear pending uploads (before switch)
-        sequencesStorageProvider.get().removeAllSequences(Sequence.TYPE_PROBE);
-        locationPointsStorageProvider.get().removeUploadableLocationPoints();
+        // Drop what's in flight in the test database (before switch). Test data
+        // stays in its own database, and production uploads were kept in theirs,
+        // so there is nothing else to clear.
+        cancelPendingProbesAndCollectingLocations();
 
         // Do the switch
         setCurrentMode(MODE_PROD);
@@ -629,6 +752,31 @@ public class StatusManager {
         // And don't clear prod profile, or parameters storage, or crypto storage (after switch)
     }
 
+    /**
+     * Remove the notified probes and collecting location points of the
+     * current mode, along with their notifications and expiry deadlines.
+     * This must be done before a mode switch, since afterwards they are in a
+     * database we don't see.
+     */
+    private synchronized void cancelPendingProbesAndCollectingLocations() {
+        Logger.d(TAG, "{} - Cancelling pending probes and collecting locationPoints",
+                getCurrentModeName());
+
+        ArrayList<Sequence> pendingProbes = sequencesStorageProvider.get().getPendingSequences(
+                Sequence.TYPE_PROBE);
+        if (pendingProbes != null) {
+            for (Sequence probe : pendingProbes) {
+                notificationManager.cancel(Sequence.TYPE_PROBE, probe.getRecurrentNotificationId());
+                probeExpiryManagerProvider.get().remove(probe.getId());
+            }
+            sequencesStorageProvider.get().remove(pendingProbes);
+        }
+
+        ArrayList<LocationPoint> collectingLocationPoints =
+                locationPointsStorageProvider.get().getCollectingLocationPoints();
+        locationPointsStorageProvider.get().remove(collectingLocationPoints);
+    }
+
     private synchronized void cancelNotifiedPollsAndCollectingLocations() {
         Logger.d(TAG, "Cancelling collecting locationPoints by calling LocationPointService");
         Intent locationPointServiceIntent = new Intent(context, LocationPointService.class);
@@ -646,7 +794,7 @@ public class StatusManager {
         context.startService(pollServiceIntent);
     }
 
-    public synchronized Boolean isExpRunning() {
+    public Boolean isExpRunning() {
         return areParametersUpdated();
     }
 
@@ -758,7 +906,7 @@ public class StatusManager {
     public synchronized void setCurrentBEQType(String type) {
         Logger.d(TAG, "{} - Setting currentBEQType to {}", getCurrentModeName(), type);
         eSharedPreferences.putString(getCurrentModeName() + CURRENT_BEG_END_QUESTIONNAIRE_TYPE, type);
-        eSharedPreferences.commit();
+        eSharedPreferences.apply();
     }
 
     public synchronized String getCurrentBEQType() {
@@ -936,14 +1084,14 @@ public class StatusManager {
             int versionCode = context.getPackageManager().getPackageInfo(
                     context.getPackageName(), 0).versionCode;
             eSharedPreferences.putInt(STORAGE_VERSION, versionCode);
-            eSharedPreferences.commit();
+            eSharedPreferences.apply();
         } catch (PackageManager.NameNotFoundException e) {
             Logger.e(TAG, "Package not found when retrieving app versionCode");
             throw new RuntimeException(e);
         }
     }
 
-    public synchronized int getAppStorageVersion() {
+    public int getAppStorageVersion() {
         Logger.d(TAG, "Get Storage version from sharedPreferences");
         return sharedPreferences.getInt(STORAGE_VERSION, -1);
     }
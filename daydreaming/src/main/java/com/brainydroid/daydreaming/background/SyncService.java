@@ -13,14 +13,20 @@ import com.brainydroid.daydreaming.db.SequencesStorage;
 import com.brainydroid.daydreaming.network.CryptoStorage;
 import com.brainydroid.daydreaming.network.CryptoStorageCallback;
 import com.brainydroid.daydreaming.network.HttpConversationCallback;
+import com.brainydroid.daydreaming.network.HttpRetryManager;
 import com.brainydroid.daydreaming.network.ParametersStorageCallback;
 import com.brainydroid.daydreaming.network.ProfileWrapper;
+import com.brainydroid.daydreaming.network.ResultsAnswerReader;
 import com.brainydroid.daydreaming.network.ResultsWrapper;
 import com.brainydroid.daydreaming.network.ResultsWrapperFactory;
+import com.brainydroid.daydreaming.network.ServerConfig;
 import com.brainydroid.daydreaming.network.ServerTalker;
+import com.brainydroid.daydreaming.network.SyncAnswer;
+import com.brainydroid.daydreaming.network.SyncEnvelope;
 import com.brainydroid.daydreaming.sequence.Sequence;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 
 import org.json.JSONException;
 
@@ -48,6 +54,8 @@ public class SyncService extends RoboService {
     protected static String TAG = "SyncService";
 
     public static String DEBUG_SYNC = "debugSync";
+    /** Extra set by {@link HttpRetryManager} when retrying after a failure */
+    public static String RETRY_SYNC = "retrySync";
     private String startSyncAppMode;
 
     @Inject StatusManager statusManager;
@@ -61,6 +69,7 @@ public class SyncService extends RoboService {
     @Inject ErrorHandler errorHandler;
     @Inject ResultsWrapperFactory<Sequence> sequencesWrapperFactory;
     @Inject ResultsWrapperFactory<LocationPoint> locationPointsWrapperFactory;
+    @Inject Provider<ResultsAnswerReader> answerReaderProvider;
 
     ParametersStorageCallback parametersStorageCallback =
             new ParametersStorageCallback() {
@@ -108,6 +117,13 @@ public class SyncService extends RoboService {
             if (hasKeyPairAndMaiId && statusManager.isDataEnabled()) {
                 Logger.d(TAG, "Have keypair and id, and data is enabled");
 
+                if (ServerConfig.BATCHED_SYNC) {
+                    Logger.d(TAG, "Launching batched sync");
+                    asyncBatchedSync();
+                    statusManager.setRegistrationRunning(false);
+                    return;
+                }
+
                 // We only sync the profile if stored data has been changed
                 if (profileStorage.isDirty()) {
                     Logger.d(TAG, "Launching profile update");
@@ -137,6 +153,8 @@ public class SyncService extends RoboService {
 
         // Launch synchronization tasks if we haven't done so not long ago
         boolean isDebugSync = intent.getBooleanExtra(DEBUG_SYNC, false);
+        // Retries are timed by HttpRetryManager's backoff, not by the last sync
+        boolean isRetrySync = intent.getBooleanExtra(RETRY_SYNC, false);
 
         if (statusManager.isSyncRunning()) {
             Logger.i(TAG, "A sync operation is already running -> exiting");
@@ -150,8 +168,8 @@ public class SyncService extends RoboService {
         // Record the current app mode for later comparison in the callbacks
         startSyncAppMode = statusManager.getCurrentModeName();
 
-        if (statusManager.isLastSyncLongAgo() || isDebugSync) {
-            Logger.d(TAG, "Last sync was long ago or this is a debug sync " +
+        if (statusManager.isLastSyncLongAgo() || isDebugSync || isRetrySync) {
+            Logger.d(TAG, "Last sync was long ago or this is a debug or retry sync " +
                     "-> starting updates");
             startUpdates(isDebugSync);
         } else {
@@ -175,6 +193,8 @@ public class SyncService extends RoboService {
             Logger.i(TAG, "Data connection enabled -> starting sync tasks");
             Logger.td(this, TAG + ": starting sync...");
 
+            serverTalker.startSyncMetrics();
+
             // We enter the parameterUpdate phase
             statusManager.setParametersSyncRunning(true);
             if (statusManager.areParametersUpdated()) {
@@ -215,6 +235,8 @@ public class SyncService extends RoboService {
         // node when jsonifying
         final ResultsWrapper<Sequence> sequencesWrap = sequencesWrapperFactory.create(
                 uploadableSequences);
+        // The server echoes the sequences back, so validate its answer as it streams in
+        final ResultsAnswerReader answerReader = answerReaderProvider.get();
 
         // Called once the HttpPostTask completes or times out
         HttpConversationCallback callback = new HttpConversationCallback() {
@@ -233,28 +255,24 @@ public class SyncService extends RoboService {
                 // ACRA logs.
 
                 if (success) {
-                    try {
-                        // Check we got back what we expected (i.e. we can serialize it)
-                        json.fromJson(serverAnswerJson,
-                                new TypeReference<ResultsWrapper<Sequence>>() {});
-                    } catch (JSONException e) {
-                        errorHandler.handleServerError(serverAnswerJson, e);
+                    // Check we got back what we expected
+                    if (!answerReader.isValid()) {
+                        errorHandler.handleServerError(answerReader.getCapturedAnswer(),
+                                answerReader.getException());
                         Logger.e(TAG, "Server answered our sequence upload with an error. Aborting.");
                         statusManager.setSequencesSyncRunning(false);
                         return;
                     }
 
-                    Logger.i(TAG, "Successfully uploaded sequences to server. Server answer:");
-                    Logger.iRaw(TAG, serverAnswerJson);
+                    Logger.i(TAG, "Successfully uploaded sequences to server. " +
+                            "Server created {0} results", answerReader.getResultsCount());
+                    if (answerReader.getResultsCount() != uploadableSequences.size()) {
+                        Logger.w(TAG, "Uploaded {0} sequences but server answered with {1} results",
+                                uploadableSequences.size(), answerReader.getResultsCount());
+                    }
                     Logger.td(SyncService.this, SyncService.TAG + ": sequences uploaded");
 
-                    Logger.d(TAG, "Removing uploaded sequences (except begin questionnaires) from db");
-                    // filter what to be deleted based on status : i.e. don't delete begin and end questionnaires
-                    ArrayList<Sequence> uploadedSequences = sequencesWrap.getDatas();
-                    ArrayList<Sequence> deletableSequences = getDeletableFromArrayList(uploadedSequences);
-                    ArrayList<Sequence> toBeKeptSequences = getToBeKeptFromArrayList(uploadedSequences);
-                    sequencesStorage.remove(deletableSequences);
-                    setToBeKeptToArrayList(toBeKeptSequences);
+                    onSequencesUploaded(sequencesWrap);
                 } else {
                     Logger.w(TAG, "Error while uploading sequences to server");
                 }
@@ -271,7 +289,17 @@ public class SyncService extends RoboService {
         // Sign our data to identify us, and upload
         Logger.d(TAG, "Signing data and launching sequences sync");
         serverTalker.signAndPostResult(json.toJsonPublic(sequencesWrap),
-                callback);
+                answerReader, callback);
+    }
+
+    private void onSequencesUploaded(ResultsWrapper<Sequence> sequencesWrap) {
+        Logger.d(TAG, "Removing uploaded sequences (except begin questionnaires) from db");
+        // filter what to be deleted based on status : i.e. don't delete begin and end questionnaires
+        ArrayList<Sequence> uploadedSequences = sequencesWrap.getDatas();
+        ArrayList<Sequence> deletableSequences = getDeletableFromArrayList(uploadedSequences);
+        ArrayList<Sequence> toBeKeptSequences = getToBeKeptFromArrayList(uploadedSequences);
+        sequencesStorage.remove(deletableSequences);
+        setToBeKeptToArrayList(toBeKeptSequences);
     }
 
     public ArrayList<Sequence> getDeletableFromArrayList(ArrayList<Sequence> sequences) {
@@ -309,7 +337,7 @@ public class SyncService extends RoboService {
         Logger.d(TAG, "Syncing locationPoints");
 
         // Do we have any location points to upload?
-        ArrayList<LocationPoint> uploadableLocationPoints =
+        final ArrayList<LocationPoint> uploadableLocationPoints =
                 locationPointsStorage.getUploadableLocationPoints();
         if (uploadableLocationPoints == null || uploadableLocationPoints.size() == 0) {
             Logger.i(TAG, "No locationPoints to upload -> exiting");
@@ -321,6 +349,8 @@ public class SyncService extends RoboService {
         // a root node when jsonifying.
         final ResultsWrapper<LocationPoint> locationPointsWrap =
                 locationPointsWrapperFactory.create(uploadableLocationPoints);
+        // The server echoes the locationPoints back, so validate its answer as it streams in
+        final ResultsAnswerReader answerReader = answerReaderProvider.get();
 
         // Called when the HttpPostTask finishes or times out
         HttpConversationCallback callback = new HttpConversationCallback() {
@@ -340,19 +370,22 @@ public class SyncService extends RoboService {
                 // ACRA logs.
 
                 if (success) {
-                    try {
-                        // Check we got back what we expected (i.e. we can serialize it)
-                        json.fromJson(serverAnswerJson,
-                                new TypeReference<ResultsWrapper<LocationPoint>>() {});
-                    } catch (JSONException e) {
-                        errorHandler.handleServerError(serverAnswerJson, e);
+                    // Check we got back what we expected
+                    if (!answerReader.isValid()) {
+                        errorHandler.handleServerError(answerReader.getCapturedAnswer(),
+                                answerReader.getException());
                         Logger.e(TAG, "Server answered our locationPoints upload with an error. Aborting.");
                         statusManager.setLocationPointsSyncRunning(false);
                         return;
                     }
 
-                    Logger.i(TAG, "Successfully uploaded locationPoints to server. Server answer:");
-                    Logger.iRaw(TAG, serverAnswerJson);
+                    Logger.i(TAG, "Successfully uploaded locationPoints to server. " +
+                            "Server created {0} results", answerReader.getResultsCount());
+                    if (answerReader.getResultsCount() != uploadableLocationPoints.size()) {
+                        Logger.w(TAG, "Uploaded {0} locationPoints but server answered with " +
+                                "{1} results", uploadableLocationPoints.size(),
+                                answerReader.getResultsCount());
+                    }
                     Logger.td(SyncService.this, SyncService.TAG + ": uploaded locationPoints");
 
                     Logger.d(TAG, "Removing uploaded locationPoints from db");
@@ -373,7 +406,7 @@ public class SyncService extends RoboService {
         // Sign our data to identify us, and upload
         Logger.d(TAG, "Signing data and launching locationPoints sync");
         serverTalker.signAndPostResult(json.toJsonPublic(locationPointsWrap),
-                callback);
+                answerReader, callback);
     }
 
     private void asyncPutProfile() {
@@ -418,12 +451,7 @@ public class SyncService extends RoboService {
                     Logger.iRaw(TAG, serverAnswerJson);
                     Logger.td(SyncService.this, SyncService.TAG + ": profile uploaded");
 
-                    if (profileStorage.hasChangedSinceSyncStart()) {
-                        Logger.d(TAG, "Profile has changed since sync start -> not clearing isDirty flag");
-                    } else {
-                        Logger.d(TAG, "Profile untouched since sync start -> clearing isDirty flag");
-                        profileStorage.clearIsDirtyAndCommit();
-                    }
+                    onProfileUploaded();
                 } else {
                     Logger.w(TAG, "Error while uploading profile to server");
                 }
@@ -443,4 +471,155 @@ public class SyncService extends RoboService {
                 callback);
     }
 
+    private void onProfileUploaded() {
+        if (profileStorage.hasChangedSinceSyncStart()) {
+            Logger.d(TAG, "Profile has changed since sync start -> not clearing isDirty flag");
+        } else {
+            Logger.d(TAG, "Profile untouched since sync start -> clearing isDirty flag");
+            profileStorage.clearIsDirtyAndCommit();
+        }
+    }
+
+    /**
+     * Upload sequences, location points and (if dirty) the profile in a
+     * single signed {@link SyncEnvelope}, and handle the server's
+     * acknowledgement of each section separately, asynchronously.
+     */
+    private void asyncBatchedSync() {
+        Logger.d(TAG, "Syncing sequences, locationPoints and profile in one batch");
+
+        final SyncEnvelope envelope = new SyncEnvelope();
+
+        ArrayList<Sequence> uploadableSequences = sequencesStorage.getUploadableSequences();
+        final ResultsWrapper<Sequence> sequencesWrap;
+        if (uploadableSequences != null && uploadableSequences.size() > 0) {
+            sequencesWrap = sequencesWrapperFactory.create(uploadableSequences);
+            envelope.addSection(SyncEnvelope.SECTION_SEQUENCES, sequencesWrap);
+        } else {
+            Logger.v(TAG, "No sequences to upload");
+            sequencesWrap = null;
+        }
+
+        ArrayList<LocationPoint> uploadableLocationPoints =
+                locationPointsStorage.getUploadableLocationPoints();
+        final ResultsWrapper<LocationPoint> locationPointsWrap;
+        if (uploadableLocationPoints != null && uploadableLocationPoints.size() > 0) {
+            locationPointsWrap = locationPointsWrapperFactory.create(uploadableLocationPoints);
+            envelope.addSection(SyncEnvelope.SECTION_LOCATION_POINTS, locationPointsWrap);
+        } else {
+            Logger.v(TAG, "No locationPoints to upload");
+            locationPointsWrap = null;
+        }
+
+        final boolean withProfile = profileStorage.isDirty();
+        if (withProfile) {
+            profileStorage.setSyncStart();
+            envelope.addSection(SyncEnvelope.SECTION_PROFILE,
+                    profileStorage.getProfile().buildWrapper());
+        } else {
+            Logger.v(TAG, "Profile has not changed since last update");
+        }
+
+        if (envelope.isEmpty()) {
+            Logger.i(TAG, "Nothing to sync -> exiting");
+            Logger.td(this, TAG + ": nothing to sync");
+            return;
+        }
+
+        // Called when the HttpPostTask finishes or times out
+        HttpConversationCallback callback = new HttpConversationCallback() {
+
+            private final String TAG = "BatchedSync HttpConversationCallback";
+
+            @Override
+            public void onHttpConversationFinished(boolean success,
+                                                   String serverAnswerJson) {
+                Logger.d(TAG, "Batched sync HttpConversation finished");
+
+                if (!success) {
+                    Logger.w(TAG, "Error while uploading batched sync to server");
+                } else if (!statusManager.getCurrentModeName().equals(startSyncAppMode)) {
+                    Logger.i(TAG, "App mode has changed from {0} to {1} since sync started, "
+                            + "not processing the answer.", startSyncAppMode,
+                            statusManager.getCurrentModeName());
+                } else {
+                    try {
+                        SyncAnswer answer = json.fromJson(serverAnswerJson, SyncAnswer.class);
+                        Logger.i(TAG, "Batched sync answered by server");
+                        Logger.td(SyncService.this, SyncService.TAG + ": batched sync done");
+
+                        if (sequencesWrap != null && isSectionAcked(answer,
+                                SyncEnvelope.SECTION_SEQUENCES, sequencesWrap.getDatas().size())) {
+                            onSequencesUploaded(sequencesWrap);
+                        }
+                        if (locationPointsWrap != null && isSectionAcked(answer,
+                                SyncEnvelope.SECTION_LOCATION_POINTS,
+                                locationPointsWrap.getDatas().size())) {
+                            Logger.d(TAG, "Removing uploaded locationPoints from db");
+                            locationPointsStorage.remove(locationPointsWrap.getDatas());
+                        }
+                        if (withProfile && isSectionAcked(answer,
+                                SyncEnvelope.SECTION_PROFILE, -1)) {
+                            onProfileUploaded();
+                        }
+                    } catch (JSONException e) {
+                        errorHandler.handleServerError(serverAnswerJson, e);
+                        Logger.e(TAG, "Server answered our batched sync with an error. Aborting.");
+                    }
+                }
+
+                // We finish all the syncs in the batch
+                if (sequencesWrap != null) {
+                    statusManager.setSequencesSyncRunning(false);
+                }
+                if (locationPointsWrap != null) {
+                    statusManager.setLocationPointsSyncRunning(false);
+                }
+                if (withProfile) {
+                    statusManager.setProfileSyncRunning(false);
+                }
+            }
+
+        };
+
+        // We start all the syncs in the batch
+        if (sequencesWrap != null) {
+            statusManager.setSequencesSyncRunning(true);
+        }
+        if (locationPointsWrap != null) {
+            statusManager.setLocationPointsSyncRunning(true);
+        }
+        if (withProfile) {
+            statusManager.setProfileSyncRunning(true);
+        }
+
+        // Sign our data once to identify us, and upload
+        Logger.d(TAG, "Signing data and launching batched sync with {0} sections",
+                envelope.getSectionsCount());
+        serverTalker.signAndPostSync(json.toJsonPublic(envelope), callback);
+    }
+
+    /**
+     * Check the server stored section {@code type}, warning if it reports
+     * a different number of items than {@code expectedCount} (if not -1).
+     */
+    private boolean isSectionAcked(SyncAnswer answer, String type, int expectedCount) {
+        SyncAnswer.SectionAck ack = answer.getAck(type);
+        if (ack == null) {
+            Logger.w(TAG, "Server did not acknowledge {0} section", type);
+            return false;
+        }
+        if (!ack.isOk()) {
+            Logger.w(TAG, "Server rejected {0} section: {1}", type, ack.getError());
+            return false;
+        }
+
+        Logger.i(TAG, "Server acknowledged {0} section", type);
+        if (expectedCount != -1 && ack.getCount() != -1 && ack.getCount() != expectedCount) {
+            Logger.w(TAG, "Uploaded {0} items in {1} section but server stored {2}",
+                    expectedCount, type, ack.getCount());
+        }
+        return true;
+    }
+
 }
@@ -0,0 +1,370 @@
+package com.brainydroid.daydreaming.background;
+
+import android.annotation.SuppressLint;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Calendar;
+
+/**
+ * Coordinate all the alarms the application sets, so that alarms falling
+ * close to each other wake the device up only once.
+ * <p/>
+ * Each client schedules a service {@link Intent} under a key (scheduling
+ * again under the same key replaces the previous one), with a trigger time
+ * and a tolerance: the intent may be started up to {@code tolerance}
+ * milliseconds before or after the trigger time. A single wakeup alarm is
+ * set for the first moment at which some intent must be started, delayed
+ * as much as tolerances allow to catch more intents, and when it goes off
+ * {@link WakeupService} starts all the intents it can.
+ * <p/>
+ * Intents scheduled without wakeup (e.g. sync retries) are started along
+ * with wakeup intents if they are close enough, or with their own
+ * non-wakeup alarm otherwise.
+ * <p/>
+ * Scheduled intents are persisted, so they survive the process being
+ * killed. Trigger times count from boot, so after a reboot {@link
+ * BootReceiver} calls {@link #onBoot()} to shift them to the new boot
+ * using the wall-clock time of the previous one, and set the alarms again.
+ * Wakeup intents that fell due while the device was off are dropped rather
+ * than started at boot: the services launched at boot schedule their
+ * intents again.
+ * Counters of wakeups and started intents are kept, see {@link
+ * #getMetricsString()}.
+ * <p/>
+ * While due intents are being started, a partial wake lock is held for
+ * {@link #WAKE_LOCK_TIMEOUT} so that the device doesn't go back to sleep
+ * before the started services get to run.
+ *
+ * @author Sébastien Lerique
+ * @author Vincent Adam
+ * @see WakeupService
+ */
+@Singleton
+public class WakeupCoordinator {
+
+    private static String TAG = "WakeupCoordinator";
+
+    private static String PREFIX = "wakeup_";
+    private static String KEYS = PREFIX + "keys";
+    // Wall-clock time of the boot trigger times count from
+    private static String BOOT_TIME = PREFIX + "bootTime";
+    private static String INTENT = "_intent";
+    private static String TRIGGER_TIME = "_triggerTime";
+    private static String TOLERANCE = "_tolerance";
+    private static String IS_WAKEUP = "_isWakeup";
+    private static String SEPARATOR = ",";
+
+    private static String METRICS_START = PREFIX + "metricsStart";
+    private static String METRIC_WAKEUPS = PREFIX + "wakeups";
+    private static String METRIC_STARTED = PREFIX + "started";
+
+    private static int WAKEUP_REQUEST_CODE = 0;
+    private static int NON_WAKEUP_REQUEST_CODE = 1;
+
+    /** How long started services have to acquire their own wake lock. */
+    public static long WAKE_LOCK_TIMEOUT = 10 * 1000;  // 10 seconds (in ms)
+
+    @Inject AlarmManager alarmManager;
+    @Inject PowerManager powerManager;
+
+    private Context context;
+    private SharedPreferences sharedPreferences;
+    private SharedPreferences.Editor eSharedPreferences;
+
+    @SuppressLint("CommitPrefEdits")
+    @Inject
+    public WakeupCoordinator(Context context, SharedPreferences sharedPreferences) {
+        Logger.d(TAG, "WakeupCoordinator created");
+        this.context = context;
+        this.sharedPreferences = sharedPreferences;
+        eSharedPreferences = sharedPreferences.edit();
+    }
+
+    /**
+     * Schedule {@code intent} to be started as a service.
+     *
+     * @param key Identifies the scheduled intent, replacing any previous
+     *            one with the same key
+     * @param intent Service intent to start
+     * @param triggerTime Time at which to start the intent, in milliseconds
+     *                    of {@link SystemClock#elapsedRealtime()}
+     * @param tolerance How early or late the intent may be started, in
+     *                  milliseconds
+     * @param isWakeup Whether the device should be woken up for the intent
+     */
+    public synchronized void schedule(String key, Intent intent, long triggerTime,
+                                      long tolerance, boolean isWakeup) {
+        Logger.d(TAG, "Scheduling {0} in {1} ms (tolerance {2} ms, wakeup {3})", key,
+                triggerTime - SystemClock.elapsedRealtime(), tolerance, isWakeup);
+
+        ArrayList<String> keys = loadKeys();
+        if (!keys.contains(key)) {
+            keys.add(key);
+            saveKeys(keys);
+        }
+        eSharedPreferences.putString(PREFIX + key + INTENT, intent.toUri(0));
+        eSharedPreferences.putLong(PREFIX + key + TRIGGER_TIME, triggerTime);
+        eSharedPreferences.putLong(PREFIX + key + TOLERANCE, tolerance);
+        eSharedPreferences.putBoolean(PREFIX + key + IS_WAKEUP, isWakeup);
+        eSharedPreferences.putLong(BOOT_TIME, getBootTime());
+        eSharedPreferences.commit();
+
+        setAlarms();
+    }
+
+    /**
+     * Shift the trigger times of the scheduled intents to the current boot,
+     * drop the wakeup intents that are already past due, and set the alarms
+     * again (they don't survive a reboot). Called by {@link BootReceiver}
+     * before any service is launched.
+     */
+    public synchronized void onBoot() {
+        ArrayList<String> keys = loadKeys();
+        long bootTime = getBootTime();
+        long now = SystemClock.elapsedRealtime();
+
+        if (!sharedPreferences.contains(BOOT_TIME)) {
+            // Times can't be shifted, so drop them: services scheduling
+            // intents at launch will schedule them again
+            Logger.i(TAG, "Previous boot time unknown, dropping {0} scheduled intents",
+                    keys.size());
+            for (String key : keys) {
+                removeEntry(key);
+            }
+            saveKeys(new ArrayList<String>());
+        } else {
+            long shift = sharedPreferences.getLong(BOOT_TIME, bootTime) - bootTime;
+            Logger.d(TAG, "Shifting {0} scheduled intents by {1} ms to the new boot",
+                    keys.size(), shift);
+            ArrayList<String> remainingKeys = new ArrayList<String>();
+            for (String key : keys) {
+                long triggerTime = getTriggerTime(key) + shift;
+                if (isWakeup(key) && triggerTime + getTolerance(key) < now) {
+                    // Missed while the device was off: starting it now could
+                    // e.g. notify a stale probe, and the launched services
+                    // schedule their intents again anyway
+                    Logger.i(TAG, "{0} fell due while the device was off, dropping it", key);
+                    removeEntry(key);
+                } else {
+                    remainingKeys.add(key);
+                    eSharedPreferences.putLong(PREFIX + key + TRIGGER_TIME, triggerTime);
+                }
+            }
+            saveKeys(remainingKeys);
+        }
+        eSharedPreferences.putLong(BOOT_TIME, bootTime);
+        eSharedPreferences.commit();
+
+        setAlarms();
+    }
+
+    public synchronized void cancel(String key) {
+        Logger.d(TAG, "Cancelling {0}", key);
+        ArrayList<String> keys = loadKeys();
+        if (keys.remove(key)) {
+            saveKeys(keys);
+            removeEntry(key);
+            eSharedPreferences.commit();
+            setAlarms();
+        }
+    }
+
+    /**
+     * Start all intents that can be started now, and set the alarms for
+     * the next ones. Called by {@link WakeupService}.
+     *
+     * @param isWakeup Whether we were started by the wakeup alarm
+     */
+    public synchronized void startDueIntents(boolean isWakeup) {
+        long now = SystemClock.elapsedRealtime();
+        ArrayList<String> keys = loadKeys();
+        ArrayList<String> remainingKeys = new ArrayList<String>();
+        ArrayList<Intent> dueIntents = new ArrayList<Intent>();
+
+        for (String key : keys) {
+            if (getEarliest(key) > now) {
+                remainingKeys.add(key);
+                continue;
+            }
+
+            try {
+                dueIntents.add(Intent.parseUri(
+                        sharedPreferences.getString(PREFIX + key + INTENT, null), 0));
+            } catch (URISyntaxException e) {
+                Logger.e(TAG, "Could not read intent scheduled for {0}, dropping it", key);
+            } catch (NullPointerException e) {
+                Logger.e(TAG, "No intent scheduled for {0}, dropping it", key);
+            }
+            removeEntry(key);
+        }
+
+        Logger.d(TAG, "Starting {0} due intents, {1} remaining", dueIntents.size(),
+                remainingKeys.size());
+        saveKeys(remainingKeys);
+        if (isWakeup) {
+            increment(METRIC_WAKEUPS, 1);
+        }
+        increment(METRIC_STARTED, dueIntents.size());
+        eSharedPreferences.commit();
+
+        setAlarms();
+
+        if (dueIntents.size() > 0) {
+            // Released by timeout, once the services have had time to start
+            PowerManager.WakeLock wakeLock = powerManager.newWakeLock(
+                    PowerManager.PARTIAL_WAKE_LOCK, TAG);
+            wakeLock.acquire(WAKE_LOCK_TIMEOUT);
+        }
+        for (Intent intent : dueIntents) {
+            context.startService(intent);
+        }
+    }
+
+    /**
+     * Set the wakeup and non-wakeup alarms for the next intents to start.
+     */
+    private synchronized void setAlarms() {
+        ArrayList<String> keys = loadKeys();
+
+        long wakeupTime = getAlarmTime(keys, true);
+        setAlarm(AlarmManager.ELAPSED_REALTIME_WAKEUP, WAKEUP_REQUEST_CODE, wakeupTime);
+
+        // Non-wakeup intents that will be started by the wakeup alarm don't
+        // need an alarm of their own
+        ArrayList<String> nonWakeupKeys = new ArrayList<String>();
+        for (String key : keys) {
+            if (!isWakeup(key) && (wakeupTime == -1 || getEarliest(key) > wakeupTime)) {
+                nonWakeupKeys.add(key);
+            }
+        }
+        long nonWakeupTime = getAlarmTime(nonWakeupKeys, false);
+        setAlarm(AlarmManager.ELAPSED_REALTIME, NON_WAKEUP_REQUEST_CODE, nonWakeupTime);
+    }
+
+    /**
+     * Find the moment to start the next intents among {@code keys}: the
+     * first deadline (trigger time plus tolerance), brought forward to the
+     * latest trigger time among the intents that can be started then.
+     *
+     * @return Alarm time, or {@code -1} if there is nothing to schedule
+     */
+    private synchronized long getAlarmTime(ArrayList<String> keys, boolean isWakeup) {
+        long deadline = -1;
+        for (String key : keys) {
+            if (isWakeup(key) == isWakeup) {
+                long latest = getTriggerTime(key) + getTolerance(key);
+                if (deadline == -1 || latest < deadline) {
+                    deadline = latest;
+                }
+            }
+        }
+        if (deadline == -1) {
+            return -1;
+        }
+
+        long alarmTime = -1;
+        for (String key : keys) {
+            if (isWakeup(key) == isWakeup && getEarliest(key) <= deadline) {
+                alarmTime = Math.max(alarmTime, getTriggerTime(key));
+            }
+        }
+        return Math.min(alarmTime, deadline);
+    }
+
+    private synchronized void setAlarm(int type, int requestCode, long time) {
+        Intent intent = new Intent(context, WakeupService.class);
+        intent.putExtra(WakeupService.IS_WAKEUP, type == AlarmManager.ELAPSED_REALTIME_WAKEUP);
+        PendingIntent pendingIntent = PendingIntent.getService(context, requestCode, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        if (time == -1) {
+            Logger.v(TAG, "Nothing to schedule for alarm {0}", requestCode);
+            alarmManager.cancel(pendingIntent);
+        } else {
+            Logger.v(TAG, "Setting alarm {0} in {1} ms", requestCode,
+                    time - SystemClock.elapsedRealtime());
+            alarmManager.set(type, time, pendingIntent);
+        }
+    }
+
+    /**
+     * Estimate the wall-clock time at which the device booted.
+     */
+    private static long getBootTime() {
+        return System.currentTimeMillis() - SystemClock.elapsedRealtime();
+    }
+
+    private synchronized long getTriggerTime(String key) {
+        return sharedPreferences.getLong(PREFIX + key + TRIGGER_TIME, 0);
+    }
+
+    private synchronized long getTolerance(String key) {
+        return sharedPreferences.getLong(PREFIX + key + TOLERANCE, 0);
+    }
+
+    private synchronized long getEarliest(String key) {
+        return getTriggerTime(key) - getTolerance(key);
+    }
+
+    private synchronized boolean isWakeup(String key) {
+        return sharedPreferences.getBoolean(PREFIX + key + IS_WAKEUP, true);
+    }
+
+    private synchronized void removeEntry(String key) {
+        eSharedPreferences.remove(PREFIX + key + INTENT);
+        eSharedPreferences.remove(PREFIX + key + TRIGGER_TIME);
+        eSharedPreferences.remove(PREFIX + key + TOLERANCE);
+        eSharedPreferences.remove(PREFIX + key + IS_WAKEUP);
+    }
+
+    private synchronized ArrayList<String> loadKeys() {
+        ArrayList<String> keys = new ArrayList<String>();
+        String keysString = sharedPreferences.getString(KEYS, "");
+        for (String key : keysString.split(SEPARATOR)) {
+            if (key.length() > 0) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private synchronized void saveKeys(ArrayList<String> keys) {
+        StringBuilder keysBuilder = new StringBuilder();
+        for (String key : keys) {
+            if (keysBuilder.length() > 0) {
+                keysBuilder.append(SEPARATOR);
+            }
+            keysBuilder.append(key);
+        }
+        eSharedPreferences.putString(KEYS, keysBuilder.toString());
+    }
+
+    private synchronized void increment(String metric, int count) {
+        if (!sharedPreferences.contains(METRICS_START)) {
+            eSharedPreferences.putLong(METRICS_START, Calendar.getInstance().getTimeInMillis());
+        }
+        eSharedPreferences.putInt(metric, sharedPreferences.getInt(metric, 0) + count);
+    }
+
+    public synchronized String getMetricsString() {
+        int wakeups = sharedPreferences.getInt(METRIC_WAKEUPS, 0);
+        int started = sharedPreferences.getInt(METRIC_STARTED, 0);
+        long start = sharedPreferences.getLong(METRICS_START, -1);
+        double days = start == -1 ? 0 :
+                (Calendar.getInstance().getTimeInMillis() - start) / (24 * 60 * 60 * 1000.0);
+        return wakeups + " wakeups, " + started + " intents started" +
+                (days >= 1 ? String.format(", %.1f wakeups per day", wakeups / days) : "");
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.brainydroid.daydreaming.background;
+
+import android.content.Intent;
+import android.os.IBinder;
+
+import com.google.inject.Inject;
+
+import roboguice.service.RoboService;
+
+/**
+ * Start the intents due when an alarm set by {@link WakeupCoordinator}
+ * goes off.
+ *
+ * @author Sébastien Lerique
+ * @author Vincent Adam
+ * @see WakeupCoordinator
+ */
+public class WakeupService extends RoboService {
+
+    private static String TAG = "WakeupService";
+
+    /** Extra set to {@code true} if started by the wakeup alarm. */
+    public static String IS_WAKEUP = "isWakeup";
+
+    @Inject WakeupCoordinator wakeupCoordinator;
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        Logger.d(TAG, "WakeupService started");
+        super.onStartCommand(intent, flags, startId);
+
+        wakeupCoordinator.startDueIntents(intent.getBooleanExtra(IS_WAKEUP, false));
+
+        stopSelf();
+        return START_REDELIVER_INTENT;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        // Don't allow binding
+        return null;
+    }
+
+}
@@ -7,6 +7,7 @@ import com.brainydroid.daydreaming.sequence.PreLoadCallback;
 import com.brainydroid.daydreaming.sequence.PreLoadable;
 import com.brainydroid.daydreaming.ui.filtering.AutoCompleteAdapter;
 import com.brainydroid.daydreaming.ui.filtering.AutoCompleteAdapterFactory;
+import com.brainydroid.daydreaming.ui.filtering.FilterIndexStore;
 import com.fasterxml.jackson.annotation.JsonView;
 import com.google.inject.Inject;
 
@@ -33,6 +34,7 @@ public class AutoListQuestionDescriptionDetails implements IQuestionDescriptionD
     private ArrayList<String> possibilities = null;
 
     @Inject AutoCompleteAdapterFactory autoCompleteAdapterFactory;
+    @Inject FilterIndexStore filterIndexStore;
     private boolean isPreLoaded = false;
     private boolean isPreLoading = false;
     @Inject private HashSet<PreLoadCallback> preLoadCallbacks;
@@ -67,7 +69,7 @@ public class AutoListQuestionDescriptionDetails implements IQuestionDescriptionD
                     @Override
                     protected Void doInBackground(Void... voids) {
                         Logger.v(TAG, "Initializing adapter");
-                        adapter.initialize(initialPossibilities);
+                        adapter.initialize(filterIndexStore.getIndex(initialPossibilities));
                         return null;
                     }
 
@@ -5,6 +5,7 @@ import android.location.Location;
 import com.brainydroid.daydreaming.background.Logger;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.BeanDescription;
@@ -24,6 +25,7 @@ import com.google.inject.Singleton;
 import org.json.JSONException;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Singleton JSON serializer and deserializer to centralize registration of
@@ -111,6 +113,15 @@ public class Json {
         }
     }
 
+    /**
+     * Create a streaming parser, for answers we don't want to hold in
+     * memory as a whole.
+     */
+    public JsonParser createParser(InputStream in) throws IOException {
+        Logger.v(TAG, "Creating streaming JSON parser");
+        return mapper.getFactory().createParser(in);
+    }
+
     public <T> T fromJson(String json, Class<T> classOfT) throws JSONException {
         Logger.v(TAG, "Deserializing from JSON");
         try {
@@ -39,6 +39,9 @@ public abstract class Model<M extends Model<M,S,F>,
     @JsonView(Views.Internal.class)
     private int id = -1;
 
+    // App mode of the database the model was stored in or read from
+    private String modeName = null;
+
     private boolean retainSaves = false;
     private boolean hasRetainedSaves = false;
 
@@ -80,6 +83,18 @@ public abstract class Model<M extends Model<M,S,F>,
         return id;
     }
 
+    synchronized void setModeName(String modeName) {
+        this.modeName = modeName;
+    }
+
+    /**
+     * Get the app mode of the database this model belongs to, or {@code
+     * null} if it was never stored.
+     */
+    synchronized String getModeName() {
+        return modeName;
+    }
+
     /**
      * Save the instance to the database if the {@link #id} is different from
      * {@code -1}. (In which case it's in fact an update of an existing
@@ -22,7 +22,10 @@ public abstract class ModelStorage<M extends Model<M,S,F>,
     @Inject Json json;
     @Inject F modelFactory;
     @Inject HashMap<Integer,M> modelsCache;
-    private final SQLiteDatabase db;
+    private final Storage storage;
+    // Database of the app mode we last worked in
+    private SQLiteDatabase db;
+    private String dbModeName;
 
     protected synchronized String getTableCreationString() {
         Logger.v(TAG, "Creating table creation string");
@@ -42,14 +45,54 @@ public abstract class ModelStorage<M extends Model<M,S,F>,
     public ModelStorage(Storage storage) {
         Logger.d(TAG, "Building ModelStorage: creating tables if they don't" +
                 " exist");
-        db = storage.getWritableDatabase();
+        this.storage = storage;
+        dbModeName = storage.getCurrentModeName();
+        db = storage.getWritableDatabase(dbModeName);
         db.execSQL(getTableCreationString()); // creates db fields
     }
 
+    /**
+     * Get the database of the current app mode. If the mode changed since
+     * our last access, create our table there and drop the models cache,
+     * since model ids from the previous database mean nothing in this one.
+     */
     protected synchronized SQLiteDatabase getDb() {
+        String currentModeName = storage.getCurrentModeName();
+        SQLiteDatabase currentDb = storage.getWritableDatabase(currentModeName);
+        if (currentDb != db) {
+            Logger.d(TAG, "App mode database changed, creating tables and clearing cache");
+            currentDb.execSQL(getTableCreationString());
+            modelsCache.clear();
+            db = currentDb;
+        }
+        dbModeName = currentModeName;
         return db;
     }
 
+    /**
+     * Get the database {@code model} was stored in or read from, which is
+     * not the current one if the app mode changed since (e.g. during an
+     * upload). Model ids restart in each mode's database, so updating or
+     * removing a model anywhere else would hit an unrelated row.
+     *
+     * @return Database, or {@code null} if the model's database was deleted
+     */
+    private synchronized SQLiteDatabase getDbOf(Model<M,S,F> model) {
+        SQLiteDatabase currentDb = getDb();
+        String modelModeName = model.getModeName();
+        if (modelModeName == null || modelModeName.equals(dbModeName)) {
+            return currentDb;
+        }
+
+        Logger.d(TAG, "Model {0} belongs to mode {1}, not the current one",
+                model.getId(), modelModeName);
+        SQLiteDatabase modelDb = storage.getOpenDatabase(modelModeName);
+        if (modelDb != null) {
+            modelDb.execSQL(getTableCreationString());
+        }
+        return modelDb;
+    }
+
     protected synchronized ContentValues getModelValues(M model) {
         Logger.d(TAG, "Getting model values");
         ContentValues modelValues = new ContentValues();
@@ -78,6 +121,7 @@ public abstract class ModelStorage<M extends Model<M,S,F>,
 
         Logger.d(TAG, "Storing model to db (obtaining an id)");
 
+        SQLiteDatabase db = getDb();
         ContentValues modelValues = getModelValues(model);
         db.insert(getTableName(), null, modelValues);
 
@@ -93,6 +137,7 @@ public abstract class ModelStorage<M extends Model<M,S,F>,
         // each time.
         Logger.v(TAG, "New model id is {0}", modelId);
         model.setId(modelId);
+        model.setModeName(dbModeName);
 
         Logger.d(TAG, "Saving new model {0} to cache", modelId);
         modelsCache.put(modelId, model);
@@ -103,14 +148,24 @@ public abstract class ModelStorage<M extends Model<M,S,F>,
 
         int modelId = model.getId();
         Logger.d(TAG, "Updating model {0} in db", modelId);
+        SQLiteDatabase modelDb = getDbOf(model);
+        if (modelDb == null) {
+            Logger.w(TAG, "Database of model {0} was deleted, not updating it", modelId);
+            return;
+        }
         ContentValues modelValues = getModelValuesWithId(model);
-        db.update(getTableName(), modelValues, COL_ID + "=?",
+        modelDb.update(getTableName(), modelValues, COL_ID + "=?",
                 new String[]{Integer.toString(modelId)});
-        Logger.d(TAG, "Updating model {0} in cache", modelId);
-        modelsCache.put(modelId, model);
+        // getDbOf refreshed db, so this tells if the model is in the current mode
+        if (modelDb == db) {
+            Logger.d(TAG, "Updating model {0} in cache", modelId);
+            modelsCache.put(modelId, model);
+        }
     }
 
     public synchronized M get(int modelId) {
+        // Make sure the cache belongs to the current app mode
+        SQLiteDatabase db = getDb();
 
         // If we already retrieved the model, return the cached instance
         M cachedModel = modelsCache.get(modelId);
@@ -136,14 +191,32 @@ public abstract class ModelStorage<M extends Model<M,S,F>,
         // Make sure the model id is set inside the content
         // (isn't the case if the model was saved only once)
         model.setId(modelId);
+        model.setModeName(dbModeName);
 
         Logger.d(TAG, "Saving model {0} to cache", modelId);
         modelsCache.put(modelId, model);
         return model;
     }
 
+    /**
+     * Run {@code batch} in a single database transaction, so that the
+     * updates it makes are committed together.
+     */
+    public synchronized void runInTransaction(Runnable batch) {
+        Logger.d(TAG, "Running batch in a transaction");
+        SQLiteDatabase db = getDb();
+        db.beginTransaction();
+        try {
+            batch.run();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     public synchronized void remove(int modelId) {
         Logger.d(TAG, "Removing model {0} from cache and db", modelId);
+        SQLiteDatabase db = getDb();
         modelsCache.remove(modelId);
         db.delete(getTableName(), COL_ID + "=?",
                 new String[]{Integer.toString(modelId)});
@@ -155,9 +228,32 @@ public abstract class ModelStorage<M extends Model<M,S,F>,
             Logger.d(TAG, "No models to remove (received null)");
             return;
         }
-        for (Model model : models) {
-            remove(model.getId());
+        for (Model<M,S,F> model : models) {
+            remove(model);
+        }
+    }
+
+    /**
+     * Remove {@code model} from the database it was read from, even if the
+     * app mode changed since.
+     */
+    public synchronized void remove(Model<M,S,F> model) {
+        int modelId = model.getId();
+        SQLiteDatabase modelDb = getDbOf(model);
+        if (modelDb == null) {
+            Logger.d(TAG, "Database of model {0} was deleted, nothing to remove", modelId);
+            return;
+        }
+
+        // getDbOf refreshed db, so this tells if the model is in the current mode
+        if (modelDb == db) {
+            Logger.d(TAG, "Removing model {0} from cache", modelId);
+            modelsCache.remove(modelId);
         }
+        Logger.d(TAG, "Removing model {0} from the db of mode {1}", modelId,
+                model.getModeName());
+        modelDb.delete(getTableName(), COL_ID + "=?",
+                new String[]{Integer.toString(modelId)});
     }
 
 }
@@ -12,9 +12,11 @@ import com.brainydroid.daydreaming.background.StatusManager;
 import com.brainydroid.daydreaming.network.HttpConversationCallback;
 import com.brainydroid.daydreaming.network.HttpGetData;
 import com.brainydroid.daydreaming.network.HttpGetTask;
+import com.brainydroid.daydreaming.network.HttpRetryManager;
 import com.brainydroid.daydreaming.network.ParametersStorageCallback;
 import com.brainydroid.daydreaming.network.ServerConfig;
 import com.brainydroid.daydreaming.sequence.Sequence;
+import com.brainydroid.daydreaming.ui.filtering.FilterIndexStore;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -57,6 +59,8 @@ public class ParametersStorage {
     @Inject ProfileStorage profileStorage;
     @Inject StatusManager statusManager;
     @Inject ErrorHandler errorHandler;
+    @Inject HttpRetryManager httpRetryManager;
+    @Inject FilterIndexStore filterIndexStore;
     @Inject Context context;
 
     @SuppressLint("CommitPrefEdits")
@@ -251,6 +255,7 @@ public class ParametersStorage {
         eSharedPreferences.putString(statusManager.getCurrentModeName() + QUESTIONS,
                 json.toJsonInternal(questions));
         eSharedPreferences.commit();
+        clearPreparedProbes();
     }
 
     public synchronized ArrayList<QuestionDescription> getQuestions() {
@@ -370,6 +375,7 @@ public class ParametersStorage {
         sequences.addAll(endSequences);
         clearSequences();
         clearBEQ();
+        clearPreparedProbes();
         sequencesCache = sequences;
         eSharedPreferences.putString(statusManager.getCurrentModeName() + SEQUENCES,
                 json.toJsonInternal(sequences));
@@ -424,6 +430,17 @@ public class ParametersStorage {
         notificationManager.cancel(Sequence.TYPE_BEGIN_END_QUESTIONNAIRE, 0);
     }
 
+    /**
+     * Remove the probe built in advance by {@link
+     * com.brainydroid.daydreaming.background.ProbeSchedulerService}, since it
+     * was built from the previous questions and sequences. The next probe is
+     * then built when it is notified.
+     */
+    private synchronized void clearPreparedProbes() {
+        Logger.d(TAG, "Clearing prepared probes from storage");
+        sequencesStorage.removePreparedSequences(Sequence.TYPE_PROBE);
+    }
+
     public synchronized SequenceDescription getSequenceDescription(String name) {
         Logger.d(TAG, "{0} - Looking for sequenceDescription {1}",
                 statusManager.getCurrentModeName(), name);
@@ -612,6 +629,10 @@ public class ParametersStorage {
             setQuestions(serverParametersJson.getQuestions());
             setSequences(serverParametersJson.getSequences());
 
+            // Build the auto-complete indexes now, so question pages don't have to
+            filterIndexStore.prebuild(statusManager.getCurrentModeName(),
+                    serverParametersJson.getQuestions());
+
             // Instantiating the Begin and End Questionnaires
             sequencesStorage.instantiateBeginEndQuestionnaires();
             statusManager.setCurrentBEQType(Sequence.TYPE_BEGIN_QUESTIONNAIRE);
@@ -728,9 +749,19 @@ public class ParametersStorage {
 
         };
 
+        // Debug syncs are explicitly asked for, so they don't wait for the backoff
+        if (!isDebug && !httpRetryManager.isAttemptAllowed(
+                HttpRetryManager.ENDPOINT_PARAMETERS)) {
+            Logger.i(TAG, "Backing off from parameters update -> returning failure");
+            updateParametersCallback.onHttpConversationFinished(false, null);
+            return;
+        }
+
         String getUrl = MessageFormat.format(ServerConfig.PARAMETERS_URL_BASE,
                 statusManager.getCurrentModeName());
-        HttpGetData updateParametersData = new HttpGetData(getUrl, updateParametersCallback);
+        HttpGetData updateParametersData = new HttpGetData(getUrl,
+                httpRetryManager.wrapCallback(HttpRetryManager.ENDPOINT_PARAMETERS,
+                        updateParametersCallback));
         HttpGetTask updateParametersTask = new HttpGetTask();
         updateParametersTask.execute(updateParametersData);
     }
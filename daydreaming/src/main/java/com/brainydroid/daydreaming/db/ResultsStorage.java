@@ -7,6 +7,7 @@ import android.content.Context;
 import com.brainydroid.daydreaming.background.ErrorHandler;
 import com.brainydroid.daydreaming.background.Logger;
 import com.brainydroid.daydreaming.background.StatusManager;
+import com.brainydroid.daydreaming.network.CacheValidators;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
@@ -17,17 +18,33 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.CharBuffer;
+import java.io.Reader;
+import java.util.Calendar;
 import java.util.HashMap;
 
+/**
+ * Cache the results downloaded from the server, one file per mode.
+ * <p/>
+ * Along with the file, {@link StatusManager} keeps the time of the latest
+ * download or revalidation and the HTTP validators the server sent, so that
+ * a stale cache can be served straight away while a conditional GET checks
+ * for newer results (see {@link #isStale()}). New results are written to a
+ * temporary file which then replaces the cache, so that readers opened with
+ * {@link #openResultsReader()} keep seeing a consistent document.
+ */
 @Singleton
 public class ResultsStorage {
 
     private static String TAG = "ResultsStorage";
 
     private static String RESULTS_FILENAME = "results";
+    private static String TMP_SUFFIX = ".tmp";
     private static String STORAGE_DIRNAME = "resultsStorage";
 
+    /** Age after which cached results are revalidated with the server. */
+    public static long REVALIDATE_AGE = 60 * 60 * 1000;  // 1 hour (in ms)
+    private static int BUFFER_SIZE = 8 * 1024;
+
     @Inject StatusManager statusManager;
     @Inject HashMap<String, File> resultsFiles;
     @Inject ErrorHandler errorHandler;
@@ -50,26 +67,34 @@ public class ResultsStorage {
         return resultsFiles.get(currentModeName);
     }
 
-    public synchronized String getResults() {
-        Logger.d(TAG, "{} - Reading results from file", statusManager.getCurrentModeName());
+    /**
+     * Open a buffered reader on the cached results. The caller must close it.
+     */
+    public synchronized Reader openResultsReader() throws FileNotFoundException {
+        Logger.d(TAG, "{0} - Opening results file", statusManager.getCurrentModeName());
         if (statusManager.getResultsDownloadTimestamp() == -1) {
             Logger.e(TAG, "StatusManager reports results were never downloaded. " +
                     "There's going to be an error.");
         }
+        return new BufferedReader(new FileReader(getResultsFile()), BUFFER_SIZE);
+    }
+
+    public synchronized String getResults() {
+        Logger.d(TAG, "{} - Reading results from file", statusManager.getCurrentModeName());
         try {
-            BufferedReader buf;
-            buf = new BufferedReader(new FileReader(getResultsFile()));
-
-            StringBuilder resultsBuilder = new StringBuilder();
-            String line = null;
-            String ls = System.getProperty("line.separator");
-            while ((line = buf.readLine()) != null) {
-                resultsBuilder.append(line);
-                resultsBuilder.append(ls);
+            Reader reader = openResultsReader();
+            try {
+                StringBuilder resultsBuilder =
+                        new StringBuilder((int) getResultsFile().length());
+                char[] buffer = new char[BUFFER_SIZE];
+                int count;
+                while ((count = reader.read(buffer)) != -1) {
+                    resultsBuilder.append(buffer, 0, count);
+                }
+                return resultsBuilder.toString();
+            } finally {
+                reader.close();
             }
-            String results = resultsBuilder.toString();
-            buf.close();
-            return results;
         } catch (FileNotFoundException e) {
             Logger.e(TAG, "{} - results file not found", statusManager.getCurrentModeName());
             errorHandler.logError("Results file not found", e);
@@ -81,26 +106,61 @@ public class ResultsStorage {
         }
     }
 
-    public synchronized boolean saveResults(String resultsString) {
+    public synchronized CacheValidators getCacheValidators() {
+        return new CacheValidators(statusManager.getResultsETag(),
+                statusManager.getResultsLastModified());
+    }
+
+    /**
+     * Check if the cached results are old enough to be revalidated with the
+     * server.
+     */
+    public synchronized boolean isStale() {
+        long timestamp = statusManager.getResultsDownloadTimestamp();
+        return timestamp == -1 ||
+                Calendar.getInstance().getTimeInMillis() - timestamp > REVALIDATE_AGE;
+    }
+
+    /**
+     * Record that the server confirmed the cached results are up to date.
+     */
+    public synchronized void setRevalidatedToNow() {
+        Logger.d(TAG, "{0} - Cached results are still valid",
+                statusManager.getCurrentModeName());
+        statusManager.setResultsDownloadedToNow();
+    }
+
+    public synchronized boolean saveResults(String resultsString,
+                                            CacheValidators cacheValidators) {
         Logger.d(TAG, "Saving results to file");
+        File resultsFile = getResultsFile();
+        File tmpFile = new File(resultsFile.getPath() + TMP_SUFFIX);
         try {
-            if (getResultsFile().createNewFile()) {
-                Logger.d(TAG, "{} - Created new file for results",
-                        statusManager.getCurrentModeName());
-            } else {
-                Logger.w(TAG, "{} - Overwriting existing file for results",
-                        statusManager.getCurrentModeName());
+            BufferedWriter resultsBuf = new BufferedWriter(new FileWriter(tmpFile), BUFFER_SIZE);
+            try {
+                resultsBuf.write(resultsString);
+            } finally {
+                resultsBuf.close();
+            }
+
+            if (!tmpFile.renameTo(resultsFile)) {
+                throw new IOException("Could not move new results file in place");
             }
-            BufferedWriter resultsBuf = new BufferedWriter(new FileWriter(getResultsFile()));
-            resultsBuf.write(resultsString);
-            resultsBuf.close();
 
             statusManager.setResultsDownloadedToNow();
+            if (cacheValidators != null) {
+                statusManager.setResultsValidators(cacheValidators.getETag(),
+                        cacheValidators.getLastModified());
+            } else {
+                statusManager.setResultsValidators(null, null);
+            }
             return true;
         } catch (IOException e) {
             Logger.e(TAG, "{} - IO error writing to results file",
                     statusManager.getCurrentModeName());
             errorHandler.logError("IO error writing to results file", e);
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
             return false;
         }
     }
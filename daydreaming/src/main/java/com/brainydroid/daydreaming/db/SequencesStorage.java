@@ -83,6 +83,12 @@ public class SequencesStorage
         }
     }
 
+    public synchronized ArrayList<Sequence> getPreparedSequences(String type) {
+        Logger.d(TAG, "Getting prepared sequences");
+        return getModelsByStatusesAndTypes(new String[]{Sequence.STATUS_PREPARED},
+                new String[]{type});
+    }
+
     public synchronized ArrayList<Sequence> getPendingSequences(String type) {
         Logger.d(TAG, "Getting pending sequences");
         return getModelsByStatusesAndTypes(new String[]{Sequence.STATUS_PENDING},
@@ -98,6 +104,15 @@ public class SequencesStorage
         }
     }
 
+    public synchronized void removePreparedSequences(String type) {
+        Logger.d(TAG, "Removing prepared sequences of type {}", type);
+        ArrayList<Sequence> sequences = getPreparedSequences(type);
+        if (sequences != null) {
+            Logger.d(TAG, "Removing {} sequences", sequences.size());
+            remove(sequences);
+        }
+    }
+
     public synchronized void removeAllSequences(String[] types) {
         Logger.d(TAG, "Removing all sequences of types {}", types.toString());
         for (String type : types) {
@@ -3,29 +3,107 @@ package com.brainydroid.daydreaming.db;
 import android.app.Application;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+
+import com.brainydroid.daydreaming.background.Logger;
+import com.brainydroid.daydreaming.background.StatusManager;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.Singleton;
 
-// Class to create SQLite database for both polls and questions
+import java.util.HashMap;
+
+// Class to create SQLite databases for both polls and questions, one per app mode.
+// Storages ask for the database of the current mode each time they use it, so
+// switching modes only swaps the database handle.
 @Singleton
-public class Storage extends SQLiteOpenHelper {
+public class Storage {
 
-    @SuppressWarnings("UnusedDeclaration")
     private static String TAG = "Storage";
 
     private static final int DATABASE_VERSION = 2;
+    // The production database keeps the name it had when there was only one
     private static final String DATABASE_NAME = "Storage";
 
+    @Inject Provider<StatusManager> statusManagerProvider;
+
+    private final Application application;
+    private final HashMap<String,ModeDatabaseHelper> helpers =
+            new HashMap<String,ModeDatabaseHelper>();
+
     @Inject
     public Storage(Application application) {
-        super(application, DATABASE_NAME, null, DATABASE_VERSION);
+        this.application = application;
+    }
+
+    private static String getDatabaseName(String modeName) {
+        if (modeName.equals(StatusManager.MODE_NAME_PROD)) {
+            return DATABASE_NAME;
+        } else {
+            return DATABASE_NAME + "_" + modeName;
+        }
+    }
+
+    public synchronized String getCurrentModeName() {
+        return statusManagerProvider.get().getCurrentModeName();
+    }
+
+    /**
+     * Get the database of the current app mode.
+     */
+    public synchronized SQLiteDatabase getWritableDatabase() {
+        return getWritableDatabase(getCurrentModeName());
     }
 
-    @Override
-    public synchronized void onCreate(SQLiteDatabase db) {}
+    /**
+     * Get the database of mode {@code modeName}, opening it if necessary.
+     */
+    public synchronized SQLiteDatabase getWritableDatabase(String modeName) {
+        ModeDatabaseHelper helper = helpers.get(modeName);
+        if (helper == null) {
+            Logger.d(TAG, "{0} - Opening database", modeName);
+            helper = new ModeDatabaseHelper(application, getDatabaseName(modeName));
+            helpers.put(modeName, helper);
+        }
+        return helper.getWritableDatabase();
+    }
+
+    /**
+     * Get the database of mode {@code modeName} if it is open, without
+     * creating it again if it was deleted.
+     *
+     * @return Database, or {@code null} if it is not open
+     */
+    public synchronized SQLiteDatabase getOpenDatabase(String modeName) {
+        ModeDatabaseHelper helper = helpers.get(modeName);
+        return helper != null ? helper.getWritableDatabase() : null;
+    }
+
+    /**
+     * Delete the database of a mode, e.g. to start a new test experiment.
+     * Must not be called for the current mode.
+     */
+    public synchronized void deleteDatabase(String modeName) {
+        Logger.d(TAG, "{0} - Deleting database", modeName);
+        ModeDatabaseHelper helper = helpers.remove(modeName);
+        if (helper != null) {
+            helper.close();
+        }
+        application.deleteDatabase(getDatabaseName(modeName));
+    }
 
-    @Override
-    public synchronized void onUpgrade(SQLiteDatabase db, int oldVersion,
-                                       int newVersion) { }
+    private static class ModeDatabaseHelper extends SQLiteOpenHelper {
+
+        public ModeDatabaseHelper(Application application, String name) {
+            super(application, name, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public synchronized void onCreate(SQLiteDatabase db) {}
+
+        @Override
+        public synchronized void onUpgrade(SQLiteDatabase db, int oldVersion,
+                                           int newVersion) { }
+
+    }
 
 }
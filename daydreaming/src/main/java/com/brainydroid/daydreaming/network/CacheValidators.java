@@ -0,0 +1,71 @@
+package com.brainydroid.daydreaming.network;
+
+/**
+ * HTTP cache validators for a conditional GET.
+ * <p/>
+ * Set on an {@link HttpGetData}, the validators of the cached copy are sent
+ * as {@code If-None-Match} and {@code If-Modified-Since} headers. Once the
+ * conversation is finished, they hold the validators sent back by the
+ * server, {@link #isNotModified()} tells if the cached copy is still
+ * fresh (in which case the server answer is {@code null}), and {@link
+ * #isNewCopy()} tells if the answer is a new copy to cache (and not e.g. an
+ * error body).
+ *
+ * @author Sébastien Lerique
+ * @author Vincent Adam
+ * @see HttpGetTask
+ */
+public class CacheValidators {
+
+    @SuppressWarnings("UnusedDeclaration")
+    private static String TAG = "CacheValidators";
+
+    private String eTag;
+    private String lastModified;
+    private boolean notModified = false;
+    private boolean newCopy = false;
+
+    public CacheValidators(String eTag, String lastModified) {
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    public synchronized String getETag() {
+        return eTag;
+    }
+
+    public synchronized String getLastModified() {
+        return lastModified;
+    }
+
+    public synchronized boolean hasValidators() {
+        return eTag != null || lastModified != null;
+    }
+
+    public synchronized boolean isNotModified() {
+        return notModified;
+    }
+
+    public synchronized boolean isNewCopy() {
+        return newCopy;
+    }
+
+    /**
+     * Record the validators from a full (200) answer.
+     */
+    public synchronized void setFromResponse(String eTag, String lastModified) {
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        notModified = false;
+        newCopy = true;
+    }
+
+    /**
+     * Record a 304 answer: the cached copy and its validators are still valid.
+     */
+    public synchronized void setNotModified() {
+        notModified = true;
+        newCopy = false;
+    }
+
+}
@@ -40,7 +40,7 @@ public class CryptoStorage {
     @Inject Context context;
     @Inject StatusManager statusManager;
     @Inject ErrorHandler errorHandler;
-    @Inject SntpClient sntpClient;
+    @Inject NtpTimeService ntpTimeService;
 
     private final File storageDir;
     @Inject private HashMap<String,File> maiIdFiles;
@@ -365,15 +365,15 @@ public class CryptoStorage {
     public synchronized void createJwsAuthToken(final AuthTokenCallback authTokenCallback) {
         Logger.i(TAG, "{} - Creating JWS auth token", statusManager.getCurrentModeName());
 
-        SntpClientCallback sntpCallback = new SntpClientCallback() {
-            private String TAG = "createJwsAuthToken sntpCallback";
+        NtpTimeCallback ntpCallback = new NtpTimeCallback() {
+            private String TAG = "createJwsAuthToken ntpCallback";
             @Override
-            public void onTimeReceived(SntpClient sntpClient) {
-                if (sntpClient != null) {
-                    Logger.d(TAG, "Sntp request returned successfully");
+            public void onTimeReceived(boolean success, long ntpTime) {
+                if (success) {
+                    Logger.d(TAG, "NTP time received successfully");
 
-                    // Sntp answers with milliseconds. We want seconds.
-                    int now = (int)(sntpClient.getNow() / 1000);
+                    // NTP time is in milliseconds. We want seconds.
+                    int now = (int)(ntpTime / 1000);
 
                     String b64Header = Crypto.base64urlEncode(JWS_HEADER.getBytes());
                     String payload = json.toJsonPublic(new AuthContent(getMaiId(), now));
@@ -385,13 +385,13 @@ public class CryptoStorage {
 
                     authTokenCallback.onAuthTokenReady(b64Header + "." + b64Payload + "." + b64Sig);
                 } else {
-                    Logger.v(TAG, "Sntp request failed");
+                    Logger.v(TAG, "NTP time unavailable");
                     authTokenCallback.onAuthTokenReady(null);
                 }
             }
         };
 
-        sntpClient.asyncRequestTime(sntpCallback);
+        ntpTimeService.asyncNow(ntpCallback);
     }
 
     public static interface AuthTokenCallback {
@@ -7,6 +7,7 @@ public class HttpGetData {
 
     private final String getUrl;
     private final HttpConversationCallback httpConversationCallback;
+    private CacheValidators cacheValidators = null;
 
     public HttpGetData(String getUrl, HttpConversationCallback httpConversationCallback) {
         this.getUrl = getUrl;
@@ -21,4 +22,16 @@ public class HttpGetData {
         return httpConversationCallback;
     }
 
+    public synchronized CacheValidators getCacheValidators() {
+        return cacheValidators;
+    }
+
+    /**
+     * Make the GET conditional on {@code cacheValidators}, which also
+     * receive the validators and status of the answer.
+     */
+    public synchronized void setCacheValidators(CacheValidators cacheValidators) {
+        this.cacheValidators = cacheValidators;
+    }
+
 }
@@ -2,8 +2,10 @@ package com.brainydroid.daydreaming.network;
 
 import android.os.AsyncTask;
 import com.brainydroid.daydreaming.background.Logger;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
@@ -19,6 +21,11 @@ public class HttpGetTask extends AsyncTask<HttpGetData, Void, Boolean> {
 
     private static String TAG = "HttpGetTask";
 
+    private static String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static String HEADER_ETAG = "ETag";
+    private static String HEADER_LAST_MODIFIED = "Last-Modified";
+
     private HttpClient client;
     private String serverAnswer;
     private HttpConversationCallback httpConversationCallback;
@@ -43,9 +50,43 @@ public class HttpGetTask extends AsyncTask<HttpGetData, Void, Boolean> {
             httpConversationCallback = getData.getHttpConversationCallback();
             HttpGet httpGet = new HttpGet(getData.getGetUrl());
 
+            CacheValidators cacheValidators = getData.getCacheValidators();
+            if (cacheValidators != null) {
+                if (cacheValidators.getETag() != null) {
+                    httpGet.setHeader(HEADER_IF_NONE_MATCH, cacheValidators.getETag());
+                }
+                if (cacheValidators.getLastModified() != null) {
+                    httpGet.setHeader(HEADER_IF_MODIFIED_SINCE,
+                            cacheValidators.getLastModified());
+                }
+            }
+
             HttpResponse response = client.execute(httpGet);
             HttpEntity resEntity = response.getEntity();
 
+            if (cacheValidators != null) {
+                int statusCode = response.getStatusLine().getStatusCode();
+                if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
+                    Logger.v(TAG, "Cached copy not modified");
+                    cacheValidators.setNotModified();
+                    if (resEntity != null) {
+                        resEntity.consumeContent();
+                    }
+                    serverAnswer = null;
+                    return true;
+                }
+
+                if (statusCode == HttpStatus.SC_OK) {
+                    Header eTag = response.getFirstHeader(HEADER_ETAG);
+                    Header lastModified = response.getFirstHeader(HEADER_LAST_MODIFIED);
+                    cacheValidators.setFromResponse(eTag != null ? eTag.getValue() : null,
+                            lastModified != null ? lastModified.getValue() : null);
+                } else {
+                    // Error bodies must not replace the cached copy
+                    Logger.w(TAG, "Answer has status {0}, not a copy to cache", statusCode);
+                }
+            }
+
             if (resEntity != null) {
                 try {
                     serverAnswer = EntityUtils.toString(resEntity);
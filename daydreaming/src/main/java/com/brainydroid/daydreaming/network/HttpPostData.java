@@ -8,6 +8,7 @@ public class HttpPostData {
     private final String postUrl;
     private String postString = null;
     private String contentType = null;
+    private ResultsAnswerReader answerReader = null;
     private final HttpConversationCallback httpConversationCallback;
 
     public HttpPostData(String postUrl,
@@ -36,6 +37,18 @@ public class HttpPostData {
         this.contentType = contentType;
     }
 
+    public synchronized ResultsAnswerReader getAnswerReader() {
+        return answerReader;
+    }
+
+    /**
+     * Stream the server answer to {@code answerReader} instead of
+     * passing it as a {@link String} to the callback.
+     */
+    public synchronized void setAnswerReader(ResultsAnswerReader answerReader) {
+        this.answerReader = answerReader;
+    }
+
     public synchronized HttpConversationCallback
     getHttpConversationCallback() {
         return httpConversationCallback;
@@ -16,6 +16,7 @@ import org.apache.http.util.EntityUtils;
 import android.os.AsyncTask;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 public class HttpPostTask extends AsyncTask<HttpPostData, Void, Boolean> {
 
@@ -52,7 +53,20 @@ public class HttpPostTask extends AsyncTask<HttpPostData, Void, Boolean> {
             HttpResponse response = client.execute(httpPost);
             HttpEntity resEntity = response.getEntity();
 
-            if (resEntity != null) {
+            if (resEntity != null && postData.getAnswerReader() != null) {
+                Logger.v(TAG, "Streaming answer to answer reader");
+                InputStream answerStream = resEntity.getContent();
+                try {
+                    postData.getAnswerReader().read(answerStream);
+                } catch (IOException e) {
+                    Logger.e(TAG, "Error reading response entity -> returning failure");
+                    serverAnswer = null;
+                    return false;
+                } finally {
+                    answerStream.close();
+                }
+                serverAnswer = null;
+            } else if (resEntity != null) {
                 try {
                     serverAnswer = EntityUtils.toString(resEntity);
                     Logger.v(TAG, "Answer successfully received and " +
@@ -0,0 +1,228 @@
+package com.brainydroid.daydreaming.network;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+
+import com.brainydroid.daydreaming.background.Logger;
+import com.brainydroid.daydreaming.background.SyncService;
+import com.brainydroid.daydreaming.background.WakeupCoordinator;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.util.Calendar;
+import java.util.Random;
+
+/**
+ * Keep per-endpoint retry state for the HTTP conversations run during a
+ * sync, and schedule retries with exponential backoff and jitter.
+ * <p/>
+ * The data to upload is already durable (sequences and location points stay
+ * in their storages until uploaded, and the profile keeps its dirty flag),
+ * so what we persist here is the retry queue itself: for each endpoint, the
+ * number of consecutive failures and the time before which we shouldn't try
+ * again. On failure, an alarm is set to restart {@link SyncService} at the
+ * earliest retry time among all endpoints, until an endpoint exhausts its
+ * retry budget ({@link #MAX_RETRIES}). Attempts triggered by other means
+ * (network changes, schedulers) are deferred until the backoff has elapsed.
+ * <p/>
+ * Counters for attempts, successes, failures, deferred attempts and
+ * scheduled retries are kept for each endpoint, see {@link #getMetricsString()}.
+ *
+ * @author Sébastien Lerique
+ * @author Vincent Adam
+ * @see ServerTalker
+ * @see SyncService
+ */
+@Singleton
+public class HttpRetryManager {
+
+    private static String TAG = "HttpRetryManager";
+
+    public static String ENDPOINT_PARAMETERS = "parameters";
+    public static String ENDPOINT_REGISTRATION = "registration";
+    public static String ENDPOINT_RESULTS = "results";
+    public static String ENDPOINT_PROFILE = "profile";
+    public static String ENDPOINT_SYNC = "sync";
+    private static String[] ENDPOINTS = {ENDPOINT_PARAMETERS, ENDPOINT_REGISTRATION,
+            ENDPOINT_RESULTS, ENDPOINT_PROFILE, ENDPOINT_SYNC};
+
+    /** Backoff delay after the first failure. */
+    public static long BASE_RETRY_DELAY = 30 * 1000;  // 30 seconds (in ms)
+    /** Maximum backoff delay. */
+    public static long MAX_RETRY_DELAY = 60 * 60 * 1000;  // 1 hour (in ms)
+    /** Consecutive failures after which we stop scheduling automatic retries. */
+    public static int MAX_RETRIES = 8;
+    /** How early or late a retry may start, to share wakeups. */
+    public static long RETRY_TOLERANCE = 60 * 1000;  // 1 minute (in ms)
+    private static String WAKEUP_KEY = "syncRetry";
+
+    private static String PREFIX = "httpRetry_";
+    private static String FAILURES = "_failures";
+    private static String NEXT_ATTEMPT = "_nextAttempt";
+    private static String METRIC_ATTEMPTS = "_attempts";
+    private static String METRIC_SUCCESSES = "_successes";
+    private static String METRIC_FAILURES = "_failuresTotal";
+    private static String METRIC_DEFERRED = "_deferred";
+    private static String METRIC_RETRIES_SCHEDULED = "_retriesScheduled";
+
+    @Inject Random random;
+    @Inject WakeupCoordinator wakeupCoordinator;
+
+    private Context context;
+    private SharedPreferences sharedPreferences;
+    private SharedPreferences.Editor eSharedPreferences;
+
+    @SuppressLint("CommitPrefEdits")
+    @Inject
+    public HttpRetryManager(Context context, SharedPreferences sharedPreferences) {
+        Logger.d(TAG, "HttpRetryManager created");
+        this.context = context;
+        this.sharedPreferences = sharedPreferences;
+        eSharedPreferences = sharedPreferences.edit();
+    }
+
+    /**
+     * Check if the backoff for {@code endpoint} has elapsed. If not, the
+     * attempt is counted as deferred.
+     */
+    public synchronized boolean isAttemptAllowed(String endpoint) {
+        long nextAttempt = sharedPreferences.getLong(PREFIX + endpoint + NEXT_ATTEMPT, -1);
+        long now = Calendar.getInstance().getTimeInMillis();
+        if (nextAttempt == -1 || nextAttempt <= now) {
+            return true;
+        }
+
+        Logger.i(TAG, "Backing off from {0} for another {1} ms", endpoint, nextAttempt - now);
+        increment(endpoint + METRIC_DEFERRED);
+        eSharedPreferences.commit();
+        return false;
+    }
+
+    /**
+     * Wrap {@code callback} so that the outcome of the conversation with
+     * {@code endpoint} updates that endpoint's retry state.
+     */
+    public synchronized HttpConversationCallback wrapCallback(
+            final String endpoint, final HttpConversationCallback callback) {
+        increment(endpoint + METRIC_ATTEMPTS);
+        eSharedPreferences.commit();
+
+        return new HttpConversationCallback() {
+
+            private String TAG = "HttpRetryManager HttpConversationCallback";
+
+            @Override
+            public void onHttpConversationFinished(boolean success, String serverAnswer) {
+                Logger.v(TAG, "Recording outcome for {0}", endpoint);
+                if (success) {
+                    onSuccess(endpoint);
+                } else {
+                    onFailure(endpoint);
+                }
+                callback.onHttpConversationFinished(success, serverAnswer);
+            }
+
+        };
+    }
+
+    private synchronized void onSuccess(String endpoint) {
+        Logger.d(TAG, "Conversation with {0} succeeded, resetting backoff", endpoint);
+        increment(endpoint + METRIC_SUCCESSES);
+        eSharedPreferences.remove(PREFIX + endpoint + FAILURES);
+        eSharedPreferences.remove(PREFIX + endpoint + NEXT_ATTEMPT);
+        eSharedPreferences.commit();
+    }
+
+    private synchronized void onFailure(String endpoint) {
+        int failures = sharedPreferences.getInt(PREFIX + endpoint + FAILURES, 0) + 1;
+        long delay = getRetryDelay(failures);
+        long nextAttempt = Calendar.getInstance().getTimeInMillis() + delay;
+        Logger.d(TAG, "Conversation with {0} failed ({1} in a row), next attempt in {2} ms",
+                endpoint, failures, delay);
+
+        increment(endpoint + METRIC_FAILURES);
+        eSharedPreferences.putInt(PREFIX + endpoint + FAILURES, failures);
+        eSharedPreferences.putLong(PREFIX + endpoint + NEXT_ATTEMPT, nextAttempt);
+
+        if (failures <= MAX_RETRIES) {
+            increment(endpoint + METRIC_RETRIES_SCHEDULED);
+            eSharedPreferences.commit();
+            scheduleRetry();
+        } else {
+            Logger.w(TAG, "Retry budget for {0} exhausted, waiting for the next " +
+                    "regular sync", endpoint);
+            eSharedPreferences.commit();
+        }
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half the delay is fixed, the
+     * other half is random, so that retries from many devices spread out.
+     */
+    private synchronized long getRetryDelay(int failures) {
+        long delay = BASE_RETRY_DELAY << Math.min(failures - 1, 30);
+        if (delay <= 0 || delay > MAX_RETRY_DELAY) {
+            delay = MAX_RETRY_DELAY;
+        }
+        long halfDelay = delay / 2;
+        return halfDelay + (long)(random.nextDouble() * halfDelay);
+    }
+
+    /**
+     * Set the retry alarm to the earliest next attempt among endpoints
+     * which still have retry budget.
+     */
+    private synchronized void scheduleRetry() {
+        long earliest = -1;
+        for (String endpoint : ENDPOINTS) {
+            int failures = sharedPreferences.getInt(PREFIX + endpoint + FAILURES, 0);
+            long nextAttempt = sharedPreferences.getLong(PREFIX + endpoint + NEXT_ATTEMPT, -1);
+            if (failures > 0 && failures <= MAX_RETRIES && nextAttempt != -1 &&
+                    (earliest == -1 || nextAttempt < earliest)) {
+                earliest = nextAttempt;
+            }
+        }
+
+        if (earliest == -1) {
+            Logger.v(TAG, "No retry to schedule");
+            return;
+        }
+
+        long delay = Math.max(0, earliest - Calendar.getInstance().getTimeInMillis());
+        Logger.d(TAG, "Scheduling sync retry in {0} ms", delay);
+
+        // Retrying is not urgent, so don't wake the device up for it
+        Intent intent = new Intent(context, SyncService.class);
+        intent.putExtra(SyncService.RETRY_SYNC, true);
+        wakeupCoordinator.schedule(WAKEUP_KEY, intent, SystemClock.elapsedRealtime() + delay,
+                RETRY_TOLERANCE, false);
+    }
+
+    private synchronized void increment(String metric) {
+        eSharedPreferences.putInt(PREFIX + metric,
+                sharedPreferences.getInt(PREFIX + metric, 0) + 1);
+    }
+
+    private synchronized int getMetric(String metric) {
+        return sharedPreferences.getInt(PREFIX + metric, 0);
+    }
+
+    public synchronized String getMetricsString() {
+        StringBuilder metrics = new StringBuilder();
+        for (String endpoint : ENDPOINTS) {
+            metrics.append("\n").append(endpoint).append(": ")
+                    .append(getMetric(endpoint + METRIC_ATTEMPTS)).append(" attempts, ")
+                    .append(getMetric(endpoint + METRIC_SUCCESSES)).append(" ok, ")
+                    .append(getMetric(endpoint + METRIC_FAILURES)).append(" failed, ")
+                    .append(getMetric(endpoint + METRIC_DEFERRED)).append(" deferred, ")
+                    .append(getMetric(endpoint + METRIC_RETRIES_SCHEDULED)).append(" retries, ")
+                    .append(sharedPreferences.getInt(PREFIX + endpoint + FAILURES, 0))
+                    .append(" in a row");
+        }
+        return metrics.toString();
+    }
+
+}
@@ -0,0 +1,7 @@
+package com.brainydroid.daydreaming.network;
+
+public interface NtpTimeCallback {
+
+    public void onTimeReceived(boolean success, long ntpTime);
+
+}
@@ -0,0 +1,267 @@
+package com.brainydroid.daydreaming.network;
+
+import android.os.SystemClock;
+
+import com.brainydroid.daydreaming.background.Logger;
+import com.brainydroid.daydreaming.background.StatusManager;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serve trusted (NTP-based) timestamps to the whole application.
+ * <p/>
+ * Instead of running one SNTP request per event needing a trusted
+ * timestamp, we measure the offset between NTP time and {@link
+ * SystemClock#elapsedRealtime()} over {@link #SAMPLES_PER_REFRESH} samples,
+ * keep the sample with the lowest round trip, and serve {@link #now()} from
+ * the monotonic clock plus that offset. The offset is persisted through
+ * {@link StatusManager} so that a new process can reuse it as long as the
+ * device hasn't rebooted, and it is refreshed lazily once it is older than
+ * {@link #REFRESH_INTERVAL}.
+ *
+ * @author Sébastien Lerique
+ * @author Vincent Adam
+ * @see SntpClient
+ */
+@Singleton
+public class NtpTimeService {
+
+    private static String TAG = "NtpTimeService";
+
+    public static String NTP_HOST = "0.pool.ntp.org";
+    public static int NTP_PORT = 123;
+
+    /** Number of SNTP requests made for each offset measurement. */
+    public static int SAMPLES_PER_REFRESH = 4;
+    /** Age after which the offset is refreshed in the background. */
+    public static long REFRESH_INTERVAL = 6 * 60 * 60 * 1000;  // 6 hours (in ms)
+    /** Delay to wait after a failed refresh before retrying in the background. */
+    public static long FAILED_REFRESH_RETRY_DELAY = 5 * 60 * 1000;  // 5 min (in ms)
+    /**
+     * Maximum disagreement between the system and monotonic clocks for a
+     * persisted offset to be reused (a larger one means a reboot or a
+     * system time change happened in between).
+     */
+    public static long RESTORE_TOLERANCE = 60 * 1000;  // 1 min (in ms)
+
+    @Inject StatusManager statusManager;
+
+    private String host = NTP_HOST;
+    private int port = NTP_PORT;
+
+    // NTP time at ntpTimeReference, -1 if unknown
+    private long ntpTime = -1;
+    // Value of SystemClock.elapsedRealtime() corresponding to ntpTime
+    private long ntpTimeReference = -1;
+    // Round trip time of the sample ntpTime comes from
+    private long roundTripTime = -1;
+
+    private boolean triedRestore = false;
+    private boolean isRefreshing = false;
+    private long latestFailedRefreshReference = -1;
+    private final ArrayList<NtpTimeCallback> pendingCallbacks =
+            new ArrayList<NtpTimeCallback>();
+    // Runs callbacks when an offset is already known
+    private final ExecutorService callbackExecutor = Executors.newCachedThreadPool();
+
+    /**
+     * Use a different NTP server, e.g. a local stand-in server.
+     */
+    public synchronized void setServer(String host, int port) {
+        Logger.d(TAG, "Setting NTP server to {0}:{1}", host, port);
+        this.host = host;
+        this.port = port;
+    }
+
+    public synchronized boolean hasOffset() {
+        restoreOffset();
+        return ntpTimeReference != -1;
+    }
+
+    /**
+     * Get the current NTP time, scheduling a background refresh of the
+     * offset if it is too old.
+     *
+     * @return current NTP time in milliseconds, or {@code -1} if no offset
+     *         has been measured yet (a measurement is then launched)
+     */
+    public synchronized long now() {
+        if (!hasOffset()) {
+            Logger.v(TAG, "No offset known yet, launching a refresh");
+            launchRefresh();
+            return -1;
+        }
+
+        if (isRefreshDue()) {
+            Logger.v(TAG, "Offset is getting old, launching a background refresh");
+            launchRefresh();
+        }
+        return ntpTime + SystemClock.elapsedRealtime() - ntpTimeReference;
+    }
+
+    /**
+     * Get the current NTP time, waiting for a measurement if no offset is
+     * known yet. The callback is always called from a worker thread, never
+     * from the calling one: straight away if an offset is known, otherwise
+     * once the measurement finishes.
+     */
+    public void asyncNow(final NtpTimeCallback callback) {
+        final long now;
+        synchronized (this) {
+            now = now();
+            if (now == -1) {
+                Logger.d(TAG, "Queuing callback until the offset is measured");
+                pendingCallbacks.add(callback);
+                return;
+            }
+        }
+
+        Logger.v(TAG, "Offset known, calling back from a worker");
+        callbackExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                callback.onTimeReceived(true, now);
+            }
+
+        });
+    }
+
+    public synchronized long getRoundTripTime() {
+        return roundTripTime;
+    }
+
+    private synchronized boolean isRefreshDue() {
+        long elapsedNow = SystemClock.elapsedRealtime();
+        if (latestFailedRefreshReference != -1 &&
+                elapsedNow - latestFailedRefreshReference < FAILED_REFRESH_RETRY_DELAY) {
+            return false;
+        }
+        return elapsedNow - ntpTimeReference > REFRESH_INTERVAL;
+    }
+
+    /**
+     * Load the offset persisted in {@link StatusManager} if we don't have
+     * one in memory, and if no reboot or time change happened since it was
+     * measured.
+     */
+    private synchronized void restoreOffset() {
+        if (triedRestore || ntpTimeReference != -1) {
+            return;
+        }
+        triedRestore = true;
+
+        long savedNtpTime = statusManager.getLatestNtpTime();
+        long savedElapsedReference = statusManager.getLatestNtpElapsedReference();
+        long savedSystemReference = statusManager.getLatestNtpSystemReference();
+        if (savedNtpTime == -1 || savedElapsedReference == -1 || savedSystemReference == -1) {
+            Logger.v(TAG, "No persisted offset to restore");
+            return;
+        }
+
+        long elapsedDelta = SystemClock.elapsedRealtime() - savedElapsedReference;
+        long systemDelta = System.currentTimeMillis() - savedSystemReference;
+        if (elapsedDelta < 0 || Math.abs(systemDelta - elapsedDelta) > RESTORE_TOLERANCE) {
+            Logger.d(TAG, "Persisted offset is from before a reboot or a time change, " +
+                    "not restoring it");
+            return;
+        }
+
+        Logger.d(TAG, "Restoring persisted offset");
+        ntpTime = savedNtpTime;
+        ntpTimeReference = savedElapsedReference;
+    }
+
+    private synchronized void launchRefresh() {
+        if (isRefreshing) {
+            Logger.v(TAG, "Refresh already running");
+            return;
+        }
+        isRefreshing = true;
+
+        Thread ntpWorker = new Thread(new Runnable() {
+
+            private String TAG = "ntpWorker";
+
+            @Override
+            public void run() {
+                Logger.d(TAG, "Worker measuring the NTP offset");
+                refresh();
+            }
+
+        });
+
+        Logger.i(TAG, "Launching asynchronous NTP offset measurement");
+        ntpWorker.start();
+    }
+
+    /**
+     * Measure the offset over {@link #SAMPLES_PER_REFRESH} samples, keep the
+     * one with the lowest round trip, and call back any pending callbacks.
+     * Runs on the worker thread.
+     */
+    private void refresh() {
+        String requestHost;
+        int requestPort;
+        synchronized (this) {
+            requestHost = host;
+            requestPort = port;
+        }
+
+        SntpClient bestSample = null;
+        for (int i = 0; i < SAMPLES_PER_REFRESH; i++) {
+            SntpClient sample = new SntpClient();
+            if (!sample.requestTime(requestHost, requestPort, ServerConfig.NETWORK_TIMEOUT)) {
+                // Network is probably unavailable, don't wait for more timeouts
+                Logger.w(TAG, "NTP sample {0} failed, stopping measurement", i);
+                break;
+            }
+            if (bestSample == null || sample.getRoundTripTime() < bestSample.getRoundTripTime()) {
+                bestSample = sample;
+            }
+        }
+
+        ArrayList<NtpTimeCallback> callbacks;
+        boolean success;
+        long now = -1;
+        synchronized (this) {
+            success = bestSample != null;
+            if (success) {
+                Logger.d(TAG, "Keeping NTP sample with round trip {0} ms",
+                        bestSample.getRoundTripTime());
+                ntpTime = bestSample.getNtpTime();
+                ntpTimeReference = bestSample.getNtpTimeReference();
+                roundTripTime = bestSample.getRoundTripTime();
+                latestFailedRefreshReference = -1;
+
+                now = ntpTime + SystemClock.elapsedRealtime() - ntpTimeReference;
+                long systemReference = System.currentTimeMillis() -
+                        (SystemClock.elapsedRealtime() - ntpTimeReference);
+                Logger.d(TAG, "Saving as latest time in StatusManager");
+                statusManager.setLatestNtpTime(ntpTime, ntpTimeReference, systemReference);
+            } else {
+                Logger.w(TAG, "NTP offset measurement failed");
+                latestFailedRefreshReference = SystemClock.elapsedRealtime();
+                if (ntpTimeReference != -1) {
+                    // Keep serving the previous offset
+                    success = true;
+                    now = ntpTime + SystemClock.elapsedRealtime() - ntpTimeReference;
+                }
+            }
+
+            isRefreshing = false;
+            callbacks = new ArrayList<NtpTimeCallback>(pendingCallbacks);
+            pendingCallbacks.clear();
+        }
+
+        Logger.v(TAG, "Calling {0} pending callbacks", callbacks.size());
+        for (NtpTimeCallback callback : callbacks) {
+            callback.onTimeReceived(success, now);
+        }
+    }
+
+}
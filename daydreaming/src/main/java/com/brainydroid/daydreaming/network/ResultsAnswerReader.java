@@ -0,0 +1,194 @@
+package com.brainydroid.daydreaming.network;
+
+import com.brainydroid.daydreaming.background.Logger;
+import com.brainydroid.daydreaming.db.Json;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.google.inject.Inject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Validate the server's answer to a results upload as it streams in.
+ * <p/>
+ * The server echoes every uploaded result back. Instead of reading that
+ * answer into a {@link String} and deserializing it as a {@link
+ * ResultsWrapper} (which rebuilds every uploaded item a second time), we
+ * check the envelope with a streaming parser, keep the ids of the created
+ * results, and skip everything else. Only the beginning of the raw answer
+ * is kept, to report errors.
+ * <p/>
+ * One instance reads one answer: set it on the {@link HttpPostData} and
+ * query it from the {@link HttpConversationCallback}.
+ *
+ * @author Sébastien Lerique
+ * @author Vincent Adam
+ */
+public class ResultsAnswerReader {
+
+    private static String TAG = "ResultsAnswerReader";
+
+    private static String RESULTS = "results";
+    private static String ID = "id";
+
+    /** Number of bytes of the raw answer kept for error reports. */
+    private static int MAX_CAPTURED_ANSWER = 4 * 1024;
+
+    @Inject Json json;
+
+    private boolean isValid = false;
+    private int resultsCount = 0;
+    private final ArrayList<String> ids = new ArrayList<String>();
+    private String capturedAnswer = "";
+    private Exception exception = new IOException("No answer was read");
+
+    /**
+     * Read and validate the answer from {@code answerStream}. The stream is
+     * not closed.
+     *
+     * @throws IOException If reading the stream failed (e.g. the connection
+     *                     timed out), as opposed to the answer being invalid
+     */
+    public synchronized void read(InputStream answerStream) throws IOException {
+        Logger.d(TAG, "Reading server answer");
+
+        CapturingInputStream capturingStream = new CapturingInputStream(answerStream);
+        try {
+            JsonParser parser = json.createParser(capturingStream);
+            try {
+                readEnvelope(parser);
+                isValid = true;
+                exception = null;
+                Logger.d(TAG, "Answer is valid, with {0} results", resultsCount);
+            } finally {
+                parser.close();
+            }
+        } catch (JsonParseException e) {
+            setInvalid(e, capturingStream);
+        } catch (JsonMappingException e) {
+            setInvalid(e, capturingStream);
+        }
+    }
+
+    private synchronized void setInvalid(IOException e, CapturingInputStream capturingStream) {
+        Logger.e(TAG, "Answer is not a valid results envelope: {0}", e.getMessage());
+        isValid = false;
+        exception = e;
+        capturedAnswer = capturingStream.getCaptured();
+    }
+
+    private void readEnvelope(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("Answer is not a JSON object",
+                    parser.getCurrentLocation());
+        }
+
+        boolean hasResults = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (RESULTS.equals(field) && value == JsonToken.START_ARRAY) {
+                readResults(parser);
+                hasResults = true;
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (parser.getCurrentToken() != JsonToken.END_OBJECT) {
+            throw new JsonParseException("Answer is truncated", parser.getCurrentLocation());
+        }
+        if (!hasResults) {
+            throw new JsonParseException("Answer has no results array",
+                    parser.getCurrentLocation());
+        }
+    }
+
+    private void readResults(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (ID.equals(field) && value == JsonToken.VALUE_STRING) {
+                    ids.add(parser.getText());
+                } else {
+                    // This is where the echoed result data is dropped
+                    parser.skipChildren();
+                }
+            }
+            resultsCount++;
+        }
+
+        if (parser.getCurrentToken() != JsonToken.END_ARRAY) {
+            throw new JsonParseException("Results array contains a non-object",
+                    parser.getCurrentLocation());
+        }
+    }
+
+    public synchronized boolean isValid() {
+        return isValid;
+    }
+
+    public synchronized int getResultsCount() {
+        return resultsCount;
+    }
+
+    public synchronized ArrayList<String> getIds() {
+        return ids;
+    }
+
+    /**
+     * Get the beginning of the raw answer, if it was invalid.
+     */
+    public synchronized String getCapturedAnswer() {
+        return capturedAnswer;
+    }
+
+    public synchronized Exception getException() {
+        return exception;
+    }
+
+    /**
+     * Keep a copy of the first {@link #MAX_CAPTURED_ANSWER} bytes going
+     * through the stream.
+     */
+    private static class CapturingInputStream extends FilterInputStream {
+
+        private final ByteArrayOutputStream captured = new ByteArrayOutputStream();
+
+        public CapturingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1 && captured.size() < MAX_CAPTURED_ANSWER) {
+                captured.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int n = super.read(buffer, offset, count);
+            if (n > 0 && captured.size() < MAX_CAPTURED_ANSWER) {
+                captured.write(buffer, offset,
+                        Math.min(n, MAX_CAPTURED_ANSWER - captured.size()));
+            }
+            return n;
+        }
+
+        public String getCaptured() {
+            return new String(captured.toByteArray());
+        }
+
+    }
+
+}
@@ -22,11 +22,22 @@ public class ServerTalker {
     @Inject ProfileFactory profileFactory;
     @Inject CryptoStorage cryptoStorage;
     @Inject Json json;
+    @Inject HttpRetryManager httpRetryManager;
+
+    // Signatures made and requests sent since the current sync started
+    private int syncSignaturesCount = 0;
+    private int syncRequestsCount = 0;
 
     public synchronized String getResultsUrl() {
         return parametersStorage.getBackendApiUrl() + ServerConfig.YE_URL_RESULTS;
     }
 
+    private synchronized String getSyncUrl() {
+        String backendUrl = ServerConfig.SYNC_BACKEND_URL != null ?
+                ServerConfig.SYNC_BACKEND_URL : parametersStorage.getBackendApiUrl();
+        return backendUrl + ServerConfig.YE_URL_SYNC;
+    }
+
     private synchronized String getProfileUrl() {
         return parametersStorage.getBackendApiUrl() + ServerConfig.YE_URL_PROFILES + "/"
                 + cryptoStorage.getMaiId();
@@ -36,6 +47,12 @@ public class ServerTalker {
                                       HttpConversationCallback callback) {
         Logger.i(TAG, "Registering at the server");
 
+        if (!httpRetryManager.isAttemptAllowed(HttpRetryManager.ENDPOINT_REGISTRATION)) {
+            Logger.i(TAG, "Backing off from registration -> returning failure");
+            callback.onHttpConversationFinished(false, null);
+            return;
+        }
+
         Logger.d(TAG, "Getting key to register");
         String vkPem = cryptoStorage.createArmoredPublicKey(keyPair.getPublic());
         ProfileWrapper profileWrap = profileFactory.create(
@@ -45,68 +62,128 @@ public class ServerTalker {
         Logger.i(TAG, "Going to send the following to server (signed):");
         Logger.iRaw(TAG, jsonPayload);
         String signedJson = cryptoStorage.signJose(jsonPayload, keyPair.getPrivate());
+        syncSignaturesCount++;
         Logger.i(TAG, "Signed form:");
         Logger.iRaw(TAG, signedJson);
 
         String postUrl = parametersStorage.getBackendApiUrl() +
                 ServerConfig.YE_URL_PROFILES;
 
-        HttpPostData postData = new HttpPostData(postUrl, callback);
+        HttpPostData postData = new HttpPostData(postUrl, httpRetryManager.wrapCallback(
+                HttpRetryManager.ENDPOINT_REGISTRATION, callback));
         postData.setPostString(signedJson);
         postData.setContentType("application/json");
 
         HttpPostTask postTask = new HttpPostTask();
         Logger.d(TAG, "Executing POST task for registration");
+        syncRequestsCount++;
         postTask.execute(postData);
     }
 
     private synchronized void signAndPostData(
-            String url, String data, HttpConversationCallback callback) {
+            String endpoint, String url, String data, ResultsAnswerReader answerReader,
+            HttpConversationCallback callback) {
         Logger.i(TAG, "Signing and POSTing data to server");
 
+        if (!httpRetryManager.isAttemptAllowed(endpoint)) {
+            Logger.i(TAG, "Backing off from {0} -> returning failure", endpoint);
+            callback.onHttpConversationFinished(false, null);
+            return;
+        }
+
         Logger.d(TAG, "Signing data");
         String signedData = cryptoStorage.signJose(data);
+        syncSignaturesCount++;
 
         Logger.d(TAG, "Url is {}", url);
-        HttpPostData postData = new HttpPostData(url, callback);
+        HttpPostData postData = new HttpPostData(url,
+                httpRetryManager.wrapCallback(endpoint, callback));
         postData.setPostString(signedData);
         postData.setContentType("application/jws");
+        postData.setAnswerReader(answerReader);
 
         HttpPostTask postTask = new HttpPostTask();
         Logger.d(TAG, "Executing POST task for data upload");
+        syncRequestsCount++;
         postTask.execute(postData);
     }
 
+    /**
+     * Sign and upload results. The server answer is not passed to {@code
+     * callback}, but streamed to {@code answerReader}.
+     */
     public synchronized void signAndPostResult(
-            String data, HttpConversationCallback callback) {
-        signAndPostData(getResultsUrl(), data, callback);
+            String data, ResultsAnswerReader answerReader, HttpConversationCallback callback) {
+        signAndPostData(HttpRetryManager.ENDPOINT_RESULTS, getResultsUrl(), data,
+                answerReader, callback);
+    }
+
+    /**
+     * Sign and upload a batched sync envelope (see {@link SyncEnvelope}).
+     * The server answers with a {@link SyncAnswer}.
+     */
+    public synchronized void signAndPostSync(String data, HttpConversationCallback callback) {
+        signAndPostData(HttpRetryManager.ENDPOINT_SYNC, getSyncUrl(), data, null, callback);
     }
 
     private synchronized void signAndPutData(
-            String url, String data, HttpConversationCallback callback) {
+            String endpoint, String url, String data, HttpConversationCallback callback) {
         Logger.i(TAG, "Signing and PUTing data to server");
 
+        if (!httpRetryManager.isAttemptAllowed(endpoint)) {
+            Logger.i(TAG, "Backing off from {0} -> returning failure", endpoint);
+            callback.onHttpConversationFinished(false, null);
+            return;
+        }
+
         Logger.d(TAG, "Signing data");
         String signedData = cryptoStorage.signJose(data);
+        syncSignaturesCount++;
 
         Logger.d(TAG, "Url is {}", url);
-        HttpPutData putData = new HttpPutData(url, callback);
+        HttpPutData putData = new HttpPutData(url,
+                httpRetryManager.wrapCallback(endpoint, callback));
         putData.setPutString(signedData);
         putData.setContentType("application/jws");
 
         HttpPutTask putTask = new HttpPutTask();
         Logger.d(TAG, "Executing PUT task for data upload");
+        syncRequestsCount++;
         putTask.execute(putData);
     }
 
 
     public synchronized void signAndPutProfile(
             String data, HttpConversationCallback callback) {
-        signAndPutData(getProfileUrl(), data, callback);
+        signAndPutData(HttpRetryManager.ENDPOINT_PROFILE, getProfileUrl(), data, callback);
+    }
+
+    /**
+     * Reset the signature and request counters, at the start of a sync.
+     */
+    public synchronized void startSyncMetrics() {
+        syncSignaturesCount = 0;
+        syncRequestsCount = 0;
+    }
+
+    public synchronized String getSyncMetricsString() {
+        return syncRequestsCount + " requests, " + syncSignaturesCount + " signatures" +
+                (ServerConfig.BATCHED_SYNC ? " (batched)" : "");
+    }
+
+    public synchronized void authenticatedGet(final String url,
+                                              final HashMap<String,String> args,
+                                              final HttpConversationCallback callback) {
+        authenticatedGet(url, args, null, callback);
     }
 
+    /**
+     * Get {@code url} with an auth token, conditionally on {@code
+     * cacheValidators} if they are not {@code null}.
+     */
     public synchronized void authenticatedGet(final String url,
                                               final HashMap<String,String> args,
+                                              final CacheValidators cacheValidators,
                                               final HttpConversationCallback callback) {
         Logger.i(TAG, "Getting {} with auth token", url);
 
@@ -134,6 +211,7 @@ public class ServerTalker {
                     String getUrl = urlBuilder.toString();
 
                     HttpGetData getData = new HttpGetData(getUrl, callback);
+                    getData.setCacheValidators(cacheValidators);
                     getTask.execute(getData);
                 } else {
                     Logger.d(TAG, "AuthToken creation failed. Aborting GET.");
@@ -18,8 +18,6 @@ package com.brainydroid.daydreaming.network;
 
 import android.os.SystemClock;
 import com.brainydroid.daydreaming.background.Logger;
-import com.brainydroid.daydreaming.background.StatusManager;
-import com.google.inject.Inject;
 
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
@@ -30,23 +28,24 @@ import java.net.InetAddress;
  *
  * Sample usage:
  * <pre>SntpClient client = new SntpClient();
- * if (client.requestTime("time.foo.com")) {
+ * if (client.requestTime("time.foo.com", 123, timeout)) {
  *     long now = client.getNtpTime() + SystemClock.elapsedRealtime() - client.getNtpTimeReference();
  * }
  * </pre>
+ *
+ * Each instance holds the result of one request (one sample). The rest of
+ * the application should not use this class directly, but go through
+ * {@link NtpTimeService} which filters samples and caches the offset.
  */
 public class SntpClient {
 
     private static final String TAG = "SntpClient";
 
-    @Inject StatusManager statusManager;
-
     private static final int ORIGINATE_TIME_OFFSET = 24;
     private static final int RECEIVE_TIME_OFFSET = 32;
     private static final int TRANSMIT_TIME_OFFSET = 40;
     private static final int NTP_PACKET_SIZE = 48;
 
-    private static final int NTP_PORT = 123;
     private static final int NTP_MODE_CLIENT = 3;
     private static final int NTP_VERSION = 3;
 
@@ -67,10 +66,11 @@ public class SntpClient {
      * Sends an SNTP request to the given host and processes the response.
      *
      * @param host host name of the server.
+     * @param port port of the server.
      * @param timeout network timeout in milliseconds.
      * @return true if the transaction was successful.
      */
-    private boolean requestTime(String host, int timeout) {
+    public boolean requestTime(String host, int port, int timeout) {
         Logger.i(TAG, "Requesting NTP time from network");
 
         try {
@@ -78,7 +78,7 @@ public class SntpClient {
             socket.setSoTimeout(timeout);
             InetAddress address = InetAddress.getByName(host);
             byte[] buffer = new byte[NTP_PACKET_SIZE];
-            DatagramPacket request = new DatagramPacket(buffer, buffer.length, address, NTP_PORT);
+            DatagramPacket request = new DatagramPacket(buffer, buffer.length, address, port);
 
             // set mode = 3 (client) and version = 3
             // mode is in low 3 bits of first byte
@@ -128,53 +128,9 @@ public class SntpClient {
             return false;
         }
 
-        Logger.d(TAG, "NTP request successful, " +
-                "saving as latest time in StatusManager");
-        statusManager.setLatestNtpTime(getNow());
         return true;
     }
 
-    public void asyncRequestTime(SntpClientCallback callback) {
-        final SntpClientCallback finalCallback = callback;
-
-        Thread sntpWorker = new Thread(new Runnable() {
-
-            private String TAG = "sntpWorker";
-
-            @Override
-            public void run() {
-                Logger.d(TAG, "Worker running the NTP request");
-
-                SntpClient sntpClient = SntpClient.this;
-                if (sntpClient.requestTime("0.pool.ntp.org", ServerConfig.NETWORK_TIMEOUT)) {
-                    Logger.d(TAG, "NTP request successful");
-                    if (finalCallback != null) {
-                        Logger.d(TAG, "Calling callback");
-                        finalCallback.onTimeReceived(sntpClient);
-                    } else {
-                        Logger.v(TAG, "No callback to call");
-                    }
-                } else {
-                    Logger.w(TAG, "NTP request failed");
-                    if (finalCallback != null) {
-                        Logger.d(TAG, "Calling callback");
-                        finalCallback.onTimeReceived(null);
-                    } else {
-                        Logger.v(TAG, "No callback to call");
-                    }
-                }
-            }
-
-        });
-
-        Logger.i(TAG, "Launching asynchronous NTP time request");
-        sntpWorker.start();
-    }
-
-    public long getNow() {
-        return getNtpTime() + SystemClock.elapsedRealtime() - getNtpTimeReference();
-    }
-
     /**
      * Returns the time computed from the NTP transaction.
      *
@@ -199,7 +155,6 @@ public class SntpClient {
      *
      * @return round trip time in milliseconds.
      */
-    @SuppressWarnings("UnusedDeclaration")
     public long getRoundTripTime() {
         return mRoundTripTime;
     }
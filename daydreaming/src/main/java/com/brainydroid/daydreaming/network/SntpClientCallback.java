@@ -1,7 +0,0 @@
-package com.brainydroid.daydreaming.network;
-
-public interface SntpClientCallback {
-
-    public void onTimeReceived(SntpClient sntpClient);
-
-}
@@ -0,0 +1,73 @@
+package com.brainydroid.daydreaming.network;
+
+import com.brainydroid.daydreaming.db.Views;
+import com.fasterxml.jackson.annotation.JsonView;
+
+import java.util.ArrayList;
+
+/**
+ * Server answer to a batched sync ({@link SyncEnvelope}), with one
+ * acknowledgement per section.
+ *
+ * @author Sébastien Lerique
+ * @author Vincent Adam
+ */
+public class SyncAnswer {
+
+    @SuppressWarnings("UnusedDeclaration")
+    private static String TAG = "SyncAnswer";
+
+    @JsonView(Views.Public.class)
+    private ArrayList<SectionAck> sections;
+
+    public SyncAnswer() {}
+
+    /**
+     * Get the acknowledgement for section {@code type}, or {@code null} if
+     * the server didn't acknowledge it.
+     */
+    public synchronized SectionAck getAck(String type) {
+        if (sections == null) {
+            return null;
+        }
+        for (SectionAck ack : sections) {
+            if (type.equals(ack.getType())) {
+                return ack;
+            }
+        }
+        return null;
+    }
+
+    public static class SectionAck {
+
+        @JsonView(Views.Public.class)
+        private String type;
+        @JsonView(Views.Public.class)
+        private boolean ok = false;
+        // Number of items the server stored for this section, -1 if not given
+        @JsonView(Views.Public.class)
+        private int count = -1;
+        @JsonView(Views.Public.class)
+        private String error;
+
+        public SectionAck() {}
+
+        public synchronized String getType() {
+            return type;
+        }
+
+        public synchronized boolean isOk() {
+            return ok;
+        }
+
+        public synchronized int getCount() {
+            return count;
+        }
+
+        public synchronized String getError() {
+            return error;
+        }
+
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.brainydroid.daydreaming.network;
+
+import com.brainydroid.daydreaming.db.Views;
+import com.fasterxml.jackson.annotation.JsonView;
+
+import java.util.ArrayList;
+
+/**
+ * Payload of a batched sync: typed sections (sequences, location points,
+ * profile) sent to the server under a single signature and in a single
+ * request. The server acknowledges each section separately, see {@link
+ * SyncAnswer}.
+ *
+ * @author Sébastien Lerique
+ * @author Vincent Adam
+ */
+public class SyncEnvelope {
+
+    @SuppressWarnings("UnusedDeclaration")
+    private static String TAG = "SyncEnvelope";
+
+    public static String SECTION_SEQUENCES = "sequences";
+    public static String SECTION_LOCATION_POINTS = "locationPoints";
+    public static String SECTION_PROFILE = "profile";
+
+    @JsonView(Views.Public.class)
+    private ArrayList<Section> sections = new ArrayList<Section>();
+
+    public synchronized void addSection(String type, Object data) {
+        sections.add(new Section(type, data));
+    }
+
+    public synchronized boolean isEmpty() {
+        return sections.isEmpty();
+    }
+
+    public synchronized int getSectionsCount() {
+        return sections.size();
+    }
+
+    public static class Section {
+
+        @SuppressWarnings({"FieldCanBeLocal", "UnusedDeclaration"})
+        @JsonView(Views.Public.class)
+        private String type;
+        @SuppressWarnings({"FieldCanBeLocal", "UnusedDeclaration"})
+        @JsonView(Views.Public.class)
+        private Object data;
+
+        public Section(String type, Object data) {
+            this.type = type;
+            this.data = data;
+        }
+
+    }
+
+}
@@ -14,6 +14,7 @@ import com.google.inject.Inject;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 
 public class Sequence extends TypedStatusModel<Sequence,SequencesStorage,SequenceJsonFactory>
@@ -35,6 +36,8 @@ public class Sequence extends TypedStatusModel<Sequence,SequencesStorage,Sequenc
             TYPE_PROBE, TYPE_BEGIN_QUESTIONNAIRE, TYPE_END_QUESTIONNAIRE,
             TYPE_MORNING_QUESTIONNAIRE, TYPE_EVENING_QUESTIONNAIRE};
 
+    /* Probes: built ahead of time, notification hasn't appeared yet */
+    public static final String STATUS_PREPARED = "prepared";
     /* Probes/Questionnaires: notification has appeared */
     public static final String STATUS_PENDING = "pending";
     /* Probes: notification was dismissed, and probe not yet re-suggested nor dropped */
@@ -59,6 +62,7 @@ public class Sequence extends TypedStatusModel<Sequence,SequencesStorage,Sequenc
     public static final String STATUS_UPLOADED_AND_KEEP = "uploadedAndKeep";
 
     public static String[] AVAILABLE_STATUSES = new String[] {
+            STATUS_PREPARED,
             STATUS_PENDING,
             STATUS_RECENTLY_DISMISSED,
             STATUS_RECENTLY_MISSED,
@@ -75,6 +79,12 @@ public class Sequence extends TypedStatusModel<Sequence,SequencesStorage,Sequenc
 
     public static long EXPIRY_DELAY = 3 * 60 * 1000;  // 3 minutes
 
+    /**
+     * Set to {@code true} to check the navigation cursor against a full scan
+     * of the pages each time the current page is asked for.
+     */
+    public static boolean VALIDATE_NAVIGATION = false;
+
     @JsonView(Views.Public.class)
     private String name = null;
     @JsonView(Views.Public.class)
@@ -97,6 +107,22 @@ public class Sequence extends TypedStatusModel<Sequence,SequencesStorage,Sequenc
     @JsonView(Views.Public.class)
     private boolean wasMissedOrDismissedOrPaused = false;
 
+    // Navigation cursor: index (among the pages of all page groups) before
+    // which all pages are answered or skipped. It only moves forward, since
+    // page statuses never go back to unanswered.
+    @JsonView(Views.Internal.class)
+    private int currentPageIndex = 0;
+    @JsonView(Views.Internal.class)
+    private int totalPageCount = -1;
+    @JsonView(Views.Internal.class)
+    private int nonBonusPageCount = -1;
+
+    // Pages of all page groups in order, rebuilt when first needed
+    private ArrayList<Page> pages = null;
+    private HashMap<Page,Integer> pageIndices = null;
+    // Number of non-bonus pages up to each page (included)
+    private int[] nonBonusPagesUpTo = null;
+
     @Inject private SequencesStorage sequencesStorage;
     @Inject private ErrorHandler errorHandler;
 
@@ -256,6 +282,8 @@ public class Sequence extends TypedStatusModel<Sequence,SequencesStorage,Sequenc
     public synchronized void setPageGroups(ArrayList<PageGroup> pageGroups) {
         Logger.v(TAG, "Setting pageGroups");
         this.pageGroups = pageGroups;
+        currentPageIndex = 0;
+        indexPages();
         saveIfSync();
     }
 
@@ -318,88 +346,159 @@ public class Sequence extends TypedStatusModel<Sequence,SequencesStorage,Sequenc
         return wasMissedOrDismissedOrPaused;
     }
 
+    /**
+     * Get the first page which is neither answered nor skipped, skipping
+     * bonus pages on the way if the user asked to.
+     * <p/>
+     * Only the pages after the navigation cursor are looked at, and the
+     * cursor is moved up to the current page. With {@link
+     * #VALIDATE_NAVIGATION}, the result is checked against a scan of all the
+     * pages.
+     */
     public synchronized Page getCurrentPage() {
         Logger.d(TAG, "Getting current page");
+        indexPagesIfNeeded();
 
-        // Get last not answered page
+        int previousPageIndex = currentPageIndex;
         Page currentPage = null;
-        String status;
-        for (PageGroup pg : pageGroups) {
-
-            for (Page p : pg.getPages()) {
+        while (currentPageIndex < pages.size()) {
+            Page p = pages.get(currentPageIndex);
+            if (isAnsweredOrSkipped(p)) {
+                currentPageIndex++;
+            } else if (p.isBonus() && skipBonusesAsked && skipBonuses) {
+                // This page is bonus and we're asked to skip it
+                p.setStatus(Page.STATUS_BONUS_SKIPPED);
+                currentPageIndex++;
+            } else {
+                // It's the first non-answered and non-skipped page,
+                // ergo the current page
+                currentPage = p;
+                break;
+            }
+        }
+        if (currentPageIndex != previousPageIndex) {
+            Logger.v(TAG, "Navigation cursor moved from page {0} to {1}",
+                    previousPageIndex, currentPageIndex);
+            saveIfSync();
+        }
 
-                status = p.getStatus();
-                if (status != null && (status.equals(Page.STATUS_ANSWERED) ||
-                        status.equals(Page.STATUS_BONUS_SKIPPED))) {
+        if (currentPage == null) {
+            String msg = "Asked for a current page, but none found (all pages answered or skipped)";
+            Logger.e(TAG, msg);
+            throw new RuntimeException(msg);
+        }
 
-                    // We're at a page with status answered or skipped
+        if (VALIDATE_NAVIGATION) {
+            Page scannedPage = scanForCurrentPage();
+            if (scannedPage != currentPage) {
+                String msg = "Navigation cursor is at page " + currentPageIndex +
+                        ", but a full scan found page " + getIndexOfPage(scannedPage, true) +
+                        " as current page";
+                Logger.e(TAG, msg);
+                throw new RuntimeException(msg);
+            }
+        }
 
-                    if (currentPage != null) {
+        return currentPage;
+    }
 
-                        // We already found a current page before this page! Something is wrong
+    /**
+     * Find the current page by scanning all the pages, checking that no page
+     * after it is answered or skipped.
+     */
+    private synchronized Page scanForCurrentPage() {
+        Page currentPage = null;
+        for (Page p : pages) {
 
-                        String msg = "Found a page with status STATUS_ANSWERED or" +
-                                " STATUS_BONUS_SKIPPED after the current page " +
-                                "(i.e. an answered page after the current one)";
-                        Logger.e(TAG, msg);
-                        throw new RuntimeException(msg);
-                    }
+            if (isAnsweredOrSkipped(p)) {
 
-                } else {
+                // We're at a page with status answered or skipped
 
-                    if (currentPage == null) {
+                if (currentPage != null) {
 
-                        // This could be our current page
+                    // We already found a current page before this page! Something is wrong
 
-                        if (p.isBonus() && skipBonusesAsked && skipBonuses) {
-                            // No it's not, this page is bonus and we're asked to skip it
-                            p.setStatus(Page.STATUS_BONUS_SKIPPED);
-                        } else {
-                            // It's the first non-answered and non-skipped page,
-                            // ergo the current page
-                            currentPage = p;
-                        }
-                    }
+                    String msg = "Found a page with status STATUS_ANSWERED or" +
+                            " STATUS_BONUS_SKIPPED after the current page " +
+                            "(i.e. an answered page after the current one)";
+                    Logger.e(TAG, msg);
+                    throw new RuntimeException(msg);
                 }
-            }
-        }
 
-        if (currentPage == null) {
-            String msg = "Asked for a current page, but none found (all pages answered or skipped)";
-            Logger.e(TAG, msg);
-            throw new RuntimeException(msg);
+            } else if (currentPage == null) {
+                currentPage = p;
+            }
         }
-
         return currentPage;
     }
 
     public synchronized void skipRemainingBonuses() {
         Logger.v(TAG, "Skipping all remaining bonus pages");
+        indexPagesIfNeeded();
 
-        for (PageGroup pg : pageGroups) {
+        // Pages before the navigation cursor are all answered or skipped
+        for (int i = currentPageIndex; i < pages.size(); i++) {
+            Page p = pages.get(i);
 
-            for (Page p : pg.getPages()) {
+            if (!isAnsweredOrSkipped(p)) {
 
-                String status = p.getStatus();
-                if (status == null || !(status.equals(Page.STATUS_ANSWERED) ||
-                        status.equals(Page.STATUS_BONUS_SKIPPED))) {
-
-                    // This page has either null status, or something else than answered or skipped
-
-                    if (p.isBonus()) {
-                        // This is one of the remaining bonus pages
-                        p.setStatus(Page.STATUS_BONUS_SKIPPED);
-                    } else {
-                        // We have a problem: there should be only bonus pages here
-                        // (otherwise we wouldn't be skipping them all in one go)
-                        String msg = "Found a non-bonus non-answered (and non-skipped) page " +
-                                "while skipping remaining bonus pages. Something is wrong.";
-                        Logger.e(TAG, msg);
-                        throw new RuntimeException(msg);
-                    }
+                // This page has either null status, or something else than answered or skipped
+
+                if (p.isBonus()) {
+                    // This is one of the remaining bonus pages
+                    p.setStatus(Page.STATUS_BONUS_SKIPPED);
+                } else {
+                    // We have a problem: there should be only bonus pages here
+                    // (otherwise we wouldn't be skipping them all in one go)
+                    String msg = "Found a non-bonus non-answered (and non-skipped) page " +
+                            "while skipping remaining bonus pages. Something is wrong.";
+                    Logger.e(TAG, msg);
+                    throw new RuntimeException(msg);
                 }
             }
         }
+
+        currentPageIndex = pages.size();
+        saveIfSync();
+    }
+
+    private static boolean isAnsweredOrSkipped(Page page) {
+        String status = page.getStatus();
+        return status != null && (status.equals(Page.STATUS_ANSWERED) ||
+                status.equals(Page.STATUS_BONUS_SKIPPED));
+    }
+
+    private synchronized void indexPagesIfNeeded() {
+        if (pages == null) {
+            indexPages();
+        }
+    }
+
+    /**
+     * List the pages of all page groups in order, and count them.
+     */
+    private synchronized void indexPages() {
+        Logger.v(TAG, "Indexing pages");
+        pages = new ArrayList<Page>();
+        pageIndices = new HashMap<Page,Integer>();
+        for (PageGroup pg : pageGroups) {
+            for (Page p : pg.getPages()) {
+                pageIndices.put(p, pages.size());
+                pages.add(p);
+            }
+        }
+
+        nonBonusPagesUpTo = new int[pages.size()];
+        int nonBonus = 0;
+        for (int i = 0; i < pages.size(); i++) {
+            if (!pages.get(i).isBonus()) {
+                nonBonus++;
+            }
+            nonBonusPagesUpTo[i] = nonBonus;
+        }
+
+        totalPageCount = pages.size();
+        nonBonusPageCount = nonBonus;
     }
 
     @Override
@@ -445,31 +544,25 @@ public class Sequence extends TypedStatusModel<Sequence,SequencesStorage,Sequenc
         return -1;
     }
 
-    public int getTotalPageCount(boolean withBonus) {
-        int numberOfPages = 0;
-        for (PageGroup pageGroup : pageGroups) {
-            numberOfPages += pageGroup.getNumberOfPages(withBonus);
+    public synchronized int getTotalPageCount(boolean withBonus) {
+        if (totalPageCount == -1) {
+            // Counts were not saved with this sequence
+            indexPages();
         }
-        return numberOfPages;
+        return withBonus ? totalPageCount : nonBonusPageCount;
     }
 
-    public int getIndexOfPage(Page searchedPage, boolean withBonus) {
-        int indexOfPage = 0;
-        for (PageGroup pageGroup : pageGroups) {
-            for (Page page : pageGroup.getPages()) {
-                if (withBonus) {
-                    indexOfPage += 1;
-                } else {
-                    if (!page.isBonus()) {
-                        indexOfPage += 1;
-                    }
-                }
-                if (page == searchedPage) {
-                    return indexOfPage;
-                }
-            }
+    /**
+     * Get the position of {@code searchedPage} in the sequence, starting at
+     * 1, and counting bonus pages or not.
+     */
+    public synchronized int getIndexOfPage(Page searchedPage, boolean withBonus) {
+        indexPagesIfNeeded();
+        Integer index = pageIndices.get(searchedPage);
+        if (index == null) {
+            return getTotalPageCount(withBonus);
         }
-        return indexOfPage;
+        return withBonus ? index + 1 : nonBonusPagesUpTo[index];
     }
 
 }
@@ -9,6 +9,8 @@ import com.fasterxml.jackson.module.guice.ObjectMapperModule;
 
 import org.acra.ACRA;
 import org.acra.ACRAConfiguration;
+import org.acra.ErrorReporter;
+import org.acra.ExceptionHandlerInitializer;
 import org.acra.ReportingInteractionMode;
 import org.acra.annotation.ReportsCrashes;
 import org.acra.sender.HttpSender;
@@ -28,6 +30,8 @@ public class App extends Application {
     @SuppressWarnings("FieldCanBeLocal")
     private static String TAG = "App";
 
+    private static String ACRA_RECENT_LOGS = "recentLogs";
+
     @Override
     public void onCreate() {
         Logger.d(TAG, "Creating Application");
@@ -43,6 +47,17 @@ public class App extends Application {
         acraConfig.setFormUriBasicAuthPassword(getResources().getString(R.string.crash_pass));
         ACRA.setConfig(acraConfig);
 
+        // Attach the log records kept in memory to each report
+        ACRA.getErrorReporter().setExceptionHandlerInitializer(
+                new ExceptionHandlerInitializer() {
+
+            @Override
+            public void initializeExceptionHandler(ErrorReporter reporter) {
+                reporter.putCustomData(ACRA_RECENT_LOGS, Logger.getRecentRecords());
+            }
+
+        });
+
         // Initialize RoboGuice
         RoboGuice.setBaseApplicationInjector(this, RoboGuice.DEFAULT_STAGE,
                 RoboGuice.newDefaultRoboModule(this), new ObjectMapperModule(),
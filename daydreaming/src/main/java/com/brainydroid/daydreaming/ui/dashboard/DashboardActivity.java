@@ -34,8 +34,8 @@ import com.brainydroid.daydreaming.db.ConsistencyException;
 import com.brainydroid.daydreaming.db.Json;
 import com.brainydroid.daydreaming.db.ParametersStorage;
 import com.brainydroid.daydreaming.db.SequencesStorage;
-import com.brainydroid.daydreaming.network.SntpClient;
-import com.brainydroid.daydreaming.network.SntpClientCallback;
+import com.brainydroid.daydreaming.network.NtpTimeCallback;
+import com.brainydroid.daydreaming.network.NtpTimeService;
 import com.brainydroid.daydreaming.sequence.Sequence;
 import com.brainydroid.daydreaming.sequence.SequenceBuilder;
 import com.brainydroid.daydreaming.ui.AlphaButton;
@@ -64,7 +64,7 @@ public class DashboardActivity extends RoboFragmentActivity implements View.OnCl
 
     @Inject ParametersStorage parametersStorage;
     @Inject StatusManager statusManager;
-    @Inject SntpClient sntpClient;
+    @Inject NtpTimeService ntpTimeService;
     @Inject SequenceBuilder sequenceBuilder;
     @Inject SequencesStorage sequencesStorage;
     @Inject Json json;
@@ -402,25 +402,25 @@ public class DashboardActivity extends RoboFragmentActivity implements View.OnCl
         updateRunningTimeFromTimestamp(lastNtpTimestamp);
 
         // And try to update the timestamp
-        SntpClientCallback callback = new SntpClientCallback() {
+        NtpTimeCallback callback = new NtpTimeCallback() {
 
-            private String TAG = "Dashboard SntpClientCallback";
+            private String TAG = "Dashboard NtpTimeCallback";
 
             @Override
-            public void onTimeReceived(SntpClient sntpClient) {
-                Logger.d(TAG, "NTP request completed");
+            public void onTimeReceived(boolean success, long ntpTime) {
+                Logger.d(TAG, "NTP time request completed");
 
-                if (sntpClient != null) {
-                    Logger.i(TAG, "NTP request successful, " +
+                if (success) {
+                    Logger.i(TAG, "NTP time available, " +
                             "updating running time views in dashboard");
-                    updateRunningTimeFromTimestamp(sntpClient.getNow());
+                    updateRunningTimeFromTimestamp(ntpTime);
                 } else {
-                    Logger.i(TAG, "NTP request failed, sntpClient is null");
+                    Logger.i(TAG, "NTP time unavailable");
                 }
             }
         };
 
-        sntpClient.asyncRequestTime(callback);
+        ntpTimeService.asyncNow(callback);
     }
 
     private void updateRunningTimeFromTimestamp(long timestampNow) {
@@ -28,6 +28,7 @@ import com.brainydroid.daydreaming.db.Json;
 import com.brainydroid.daydreaming.db.ParametersStorage;
 import com.brainydroid.daydreaming.db.ProfileStorage;
 import com.brainydroid.daydreaming.db.ResultsStorage;
+import com.brainydroid.daydreaming.network.CacheValidators;
 import com.brainydroid.daydreaming.network.CryptoStorage;
 import com.brainydroid.daydreaming.network.HttpConversationCallback;
 import com.brainydroid.daydreaming.network.ProfileWrapper;
@@ -71,6 +72,13 @@ public class ResultsActivity extends RoboFragmentActivity {
     private ShareInterface shareInterface = null;
     private String profileWrap;
 
+    /**
+     * Data injected in the results page. The results are either those just
+     * downloaded, or those read from {@link ResultsStorage} in the background
+     * before the page was loaded: in both cases a single snapshot is served
+     * for the whole page load, even if a revalidation updates the cache in
+     * the meantime.
+     */
     public static class JSResults {
 
         private int versionCode;
@@ -78,8 +86,8 @@ public class ResultsActivity extends RoboFragmentActivity {
         private String resultsWrap;
         private long expStartTimestamp;
 
-        public JSResults(int versionCode, long expStartTimestamp,
-                         String profileWrap, String resultsWrap) {
+        public JSResults(int versionCode, long expStartTimestamp, String profileWrap,
+                         String resultsWrap) {
             this.versionCode = versionCode;
             this.expStartTimestamp = expStartTimestamp;
             this.profileWrap = profileWrap;
@@ -110,18 +118,18 @@ public class ResultsActivity extends RoboFragmentActivity {
     public static class ResultsInterface {
 
         private Activity resultsActivity;
-        private String resultsWrap;
+        private JSResults jsResults;
 
-        public ResultsInterface(Activity resultsActivity, String resultsWrap) {
+        public ResultsInterface(Activity resultsActivity, JSResults jsResults) {
             this.resultsActivity = resultsActivity;
-            this.resultsWrap = resultsWrap;
+            this.jsResults = jsResults;
         }
 
         @JavascriptInterface
         public void saveRawResults() {
             Intent saveIntent = new Intent();
             saveIntent.setAction(Intent.ACTION_SEND);
-            saveIntent.putExtra(Intent.EXTRA_TEXT, resultsWrap);
+            saveIntent.putExtra(Intent.EXTRA_TEXT, jsResults.getResultsWrap());
             saveIntent.setType("text/plain");
             resultsActivity.startActivity(Intent.createChooser(
                     saveIntent, resultsActivity.getResources().getString(R.string.results_save_title)));
@@ -223,6 +231,12 @@ public class ResultsActivity extends RoboFragmentActivity {
         webView.onPause();
     }
 
+    @Override
+    public void onDestroy() {
+        Logger.v(TAG, "Destroying");
+        super.onDestroy();
+    }
+
     private void setPageLoaded() {
         pageLoaded = true;
         finalizeIfLoadingFinished();
@@ -257,6 +271,7 @@ public class ResultsActivity extends RoboFragmentActivity {
         if (!resultsDownloaded) {
             Logger.v(TAG, "Results not downloaded -> downloading");
 
+            final CacheValidators cacheValidators = new CacheValidators(null, null);
             HttpConversationCallback resultsCallback = new HttpConversationCallback() {
                 private String TAG = "getResults HttpConversationCallback";
 
@@ -268,7 +283,9 @@ public class ResultsActivity extends RoboFragmentActivity {
                         setResultsDownloaded();
 
                         // Cache results
-                        if (!resultsStorage.saveResults(serverAnswer)) {
+                        if (!cacheValidators.isNewCopy()) {
+                            Logger.w(TAG, "Answer is not a copy of the results, not caching it");
+                        } else if (!resultsStorage.saveResults(serverAnswer, cacheValidators)) {
                             Logger.e(TAG, "Couldn't save results to file");
                             toastOnUIThread("Could not cache your results locally! " +
                                             "You'll have to download them again next time",
@@ -278,7 +295,7 @@ public class ResultsActivity extends RoboFragmentActivity {
                         jsResults = new JSResults(profileStorage.getAppVersionCode(),
                                 statusManager.getExperimentStartTimestamp(),
                                 profileWrap, serverAnswer);
-                        resultsInterface = new ResultsInterface(ResultsActivity.this, serverAnswer);
+                        resultsInterface = new ResultsInterface(ResultsActivity.this, jsResults);
                         launchWebView();
                     } else {
                         Logger.i(TAG, "Failed to get results");
@@ -299,13 +316,15 @@ public class ResultsActivity extends RoboFragmentActivity {
             HashMap<String, String> args = new HashMap<String, String>();
             args.put("access", "private");
 
-            serverTalker.authenticatedGet(serverTalker.getResultsUrl(), args, resultsCallback);
+            serverTalker.authenticatedGet(serverTalker.getResultsUrl(), args,
+                    cacheValidators, resultsCallback);
         } else {
             Logger.v(TAG, "Results downloaded -> loading from cache");
 
             (new AsyncTask<Void, Void, String>() {
                 @Override
                 protected String doInBackground(Void... voids) {
+                    // Read once, so the page sees one snapshot of the cache
                     Logger.d(TAG, "Loading results from disk");
                     return resultsStorage.getResults();
                 }
@@ -313,38 +332,88 @@ public class ResultsActivity extends RoboFragmentActivity {
                 @Override
                 protected void onPostExecute(String resultsString) {
                     if (resultsString == null) {
-                        Logger.e(TAG, "Could not load results from file");
-                        if (!failedOnceAlready) {
-                            Logger.i(TAG, "Relaunching results download");
-                            failedOnceAlready = true;
-                            toastOnUIThread("Could not load your results from cache! " +
-                                    "Downloading them from server", Toast.LENGTH_LONG);
-                            resultsDownloaded = false;
-                            loadResultsAndWebView();
-                        } else {
-                            Logger.e(TAG, "This error already happened, aborting");
-                            // We already went through this. Do not recurse.
-                            toastOnUIThread("Sorry! There was problem loading your results, " +
-                                    "developers have been notified", Toast.LENGTH_LONG);
-                            errorHandler.logError("Could not load results, twice",
-                                    new Exception("Could not load results, twice"));
-                            if (progressDialog != null) {
-                                progressDialog.dismiss();
-                            }
-                            activity.finish();
-                        }
-                    } else {
-                        jsResults = new JSResults(profileStorage.getAppVersionCode(),
-                                statusManager.getExperimentStartTimestamp(),
-                                profileWrap, resultsString);
-                        resultsInterface = new ResultsInterface(ResultsActivity.this, resultsString);
-                        launchWebView();
+                        onCachedResultsUnavailable();
+                        return;
+                    }
+
+                    jsResults = new JSResults(profileStorage.getAppVersionCode(),
+                            statusManager.getExperimentStartTimestamp(),
+                            profileWrap, resultsString);
+                    resultsInterface = new ResultsInterface(ResultsActivity.this, jsResults);
+                    launchWebView();
+
+                    if (resultsStorage.isStale()) {
+                        revalidateResults();
                     }
                 }
             }).execute();
         }
     }
 
+    private void onCachedResultsUnavailable() {
+        Logger.e(TAG, "Could not load results from file");
+        if (!failedOnceAlready) {
+            Logger.i(TAG, "Relaunching results download");
+            failedOnceAlready = true;
+            toastOnUIThread("Could not load your results from cache! " +
+                    "Downloading them from server", Toast.LENGTH_LONG);
+            resultsDownloaded = false;
+            progressDialog.dismiss();
+            loadResultsAndWebView();
+        } else {
+            Logger.e(TAG, "This error already happened, aborting");
+            // We already went through this. Do not recurse.
+            toastOnUIThread("Sorry! There was problem loading your results, " +
+                    "developers have been notified", Toast.LENGTH_LONG);
+            errorHandler.logError("Could not load results, twice",
+                    new Exception("Could not load results, twice"));
+            if (progressDialog != null) {
+                progressDialog.dismiss();
+            }
+            activity.finish();
+        }
+    }
+
+    /**
+     * Check with the server if there are newer results than the cached ones
+     * (which are being shown in the meantime), and update the cache if so.
+     */
+    private void revalidateResults() {
+        Logger.d(TAG, "Cached results are stale, revalidating them in the background");
+
+        final CacheValidators cacheValidators = resultsStorage.getCacheValidators();
+        HttpConversationCallback revalidateCallback = new HttpConversationCallback() {
+            private String TAG = "revalidateResults HttpConversationCallback";
+
+            @Override
+            public void onHttpConversationFinished(boolean success, String serverAnswer) {
+                if (!success) {
+                    Logger.i(TAG, "Failed to revalidate results, keeping the cached ones");
+                } else if (cacheValidators.isNotModified()) {
+                    Logger.i(TAG, "Cached results are up to date");
+                    resultsStorage.setRevalidatedToNow();
+                } else if (!cacheValidators.isNewCopy()) {
+                    Logger.w(TAG, "Server error while revalidating results, " +
+                            "keeping the cached ones");
+                } else if (serverAnswer != null) {
+                    Logger.i(TAG, "Newer results received, updating cache");
+                    if (resultsStorage.saveResults(serverAnswer, cacheValidators)) {
+                        toastOnUIThread("Your results were updated, they will show " +
+                                "next time you open them", Toast.LENGTH_SHORT);
+                    }
+                } else {
+                    Logger.w(TAG, "Empty answer while revalidating results");
+                }
+            }
+        };
+
+        HashMap<String, String> args = new HashMap<String, String>();
+        args.put("access", "private");
+
+        serverTalker.authenticatedGet(serverTalker.getResultsUrl(), args,
+                cacheValidators, revalidateCallback);
+    }
+
     private void launchWebView() {
         // Load the results in the webView and start it
         // Run this on UI thread
@@ -2,10 +2,13 @@ package com.brainydroid.daydreaming.ui.filtering;
 
 import android.content.Context;
 import android.database.DataSetObserver;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AutoCompleteTextView;
 import android.widget.Filter;
 import android.widget.Filterable;
 import android.widget.LinearLayout;
@@ -24,6 +27,12 @@ public class AutoCompleteAdapter implements Filterable, ListAdapter {
 
     private static String TAG = "AutoCompleteAdapter";
 
+    /**
+     * Most approximate results shown in the drop-down list. Results whose
+     * text, tokens or tags contain the query are all shown before these.
+     */
+    public static int MAX_FUZZY_RESULTS = 50;
+
     @Inject private LayoutInflater inflater;
     @Inject private Context context;
 
@@ -33,9 +42,41 @@ public class AutoCompleteAdapter implements Filterable, ListAdapter {
     @Inject private HashSet<DataSetObserver> observers;
     @Inject private HashMap<Long,MetaString> idCache;
 
-    public void initialize(ArrayList<String> possibilities) {
+    public void initialize(FilterIndex index) {
+        initialize(index, new ArrayList<String>());
+    }
+
+    /**
+     * Initialize with a prebuilt index, adding {@code addedPossibilities} on
+     * top of it without modifying it.
+     */
+    public void initialize(FilterIndex index, ArrayList<String> addedPossibilities) {
         Log.d(TAG, "Initializing");
-        filter.initialize(this, possibilities);
+        filter.initialize(this, index, addedPossibilities);
+    }
+
+    /**
+     * Set this adapter on {@code view}, and let the filter know whenever the
+     * text changes so that it can drop searches for outdated queries.
+     */
+    public void attachTo(AutoCompleteTextView view) {
+        view.addTextChangedListener(new TextWatcher() {
+
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count,
+                                          int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before,
+                                      int count) {
+                filter.onQueryChanged();
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {}
+
+        });
+        view.setAdapter(this);
     }
 
     public boolean areFilterResultsEmpty() {
@@ -1,45 +1,78 @@
 package com.brainydroid.daydreaming.ui.filtering;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-
 public abstract class CachingDistance implements IDistance {
 
-    private HashMap<DoubleStringKey,Integer> cache = new HashMap<DoubleStringKey,Integer>();
+    /** Number of distances kept in the cache. */
+    public static int CACHE_SIZE = 16384;
+
+    private final DistanceCache cache = new DistanceCache(CACHE_SIZE);
 
     public int distance(String s, String t) {
-        DoubleStringKey st = new DoubleStringKey(s ,t);
-        if (!cache.containsKey(st)) {
-            cache.put(st, computeDistance(s, t));
+        // No distance is larger than the longest string
+        return distance(s, t, Math.max(s.length(), t.length()));
+    }
+
+    public int distance(String s, String t, int limit) {
+        int cached = cache.get(s, t);
+        if (cached >= 0) {
+            // Exact distance
+            return Math.min(cached, limit + 1);
+        } else if (cached != Integer.MIN_VALUE && -cached - 1 > limit) {
+            // Lower bound, already beyond the limit
+            return limit + 1;
         }
 
-        return cache.get(st);
+        int d = computeDistance(s, t, limit);
+        // Keep an exact distance, or the lower bound we just found
+        cache.put(s, t, d <= limit ? d : -d - 1);
+        return d;
+    }
+
+    public String getCacheStatsString() {
+        return cache.getStatsString();
     }
 
     public int metaDistance(String s, MetaString ms) {
-        ArrayList<Integer> distances = new ArrayList<Integer>();
+        // The distance to the full text is at most this
+        return metaDistance(s, ms, Math.max(s.length(), ms.getLower().length()));
+    }
 
-        distances.add(distance(s, ms.getLower()));
+    public int metaDistance(String s, MetaString ms, int limit) {
         // If we're a substring, consider it exact
         if (isSubString(s, ms.getLower()))
             return 0;
         for (String token : ms.getTokens()) {
             if (isSubString(s, token))
                 return 0;
-            distances.add(distance(s, token));
         }
         for (String tag : ms.getTags()) {
             if (isSubString(s, tag))
                 return 0;
-            distances.add(distance(s, tag));
         }
-        return Collections.min(distances);
+
+        // Each distance only needs computing if it can beat the best one so far
+        int best = distance(s, ms.getLower(), limit);
+        for (String token : ms.getTokens()) {
+            if (best == 0) return 0;
+            best = Math.min(best, distance(s, token, best - 1));
+        }
+        for (String tag : ms.getTags()) {
+            if (best == 0) return 0;
+            best = Math.min(best, distance(s, tag, best - 1));
+        }
+        return best;
     }
 
     private static boolean isSubString(String s, String t) {
         return s.length() <= t.length() && s.equals(t.substring(0, s.length()));
     }
 
-    protected abstract int computeDistance(String s, String t);
+    /**
+     * Compute the distance between {@code s} and {@code t}, giving up as soon
+     * as it is known to be larger than {@code limit}.
+     *
+     * @return The distance if it is at most {@code limit}, {@code limit + 1}
+     *         otherwise
+     */
+    protected abstract int computeDistance(String s, String t, int limit);
 }
@@ -0,0 +1,144 @@
+package com.brainydroid.daydreaming.ui.filtering;
+
+import java.util.Arrays;
+
+/**
+ * Bounded cache of distances between pairs of strings.
+ * <p/>
+ * An unordered pair of strings is keyed by their hashes packed in a single
+ * long (strings cache their hash, so this is cheap), and the strings are
+ * kept with the key to tell apart pairs whose hashes collide. Entries live
+ * in fixed-size arrays: each key can only sit in a small set of {@link
+ * #WAYS} slots, and when they are all taken the next insertion evicts one
+ * of them in turn. Nothing else is evicted, and nothing is allocated per
+ * entry.
+ * <p/>
+ * Values are either an exact distance ({@code >= 0}) or a lower bound
+ * {@code b} stored as {@code -b - 1}, for distances only known to be at
+ * least {@code b}. All methods are synchronized so that the cache can be
+ * shared with the filtering thread.
+ */
+public class DistanceCache {
+
+    @SuppressWarnings("UnusedDeclaration")
+    private static String TAG = "DistanceCache";
+
+    /** Number of slots a key can be stored in. */
+    public static int WAYS = 4;
+
+    private final int mask;
+    private final long[] keys;
+    private final String[] firsts;
+    private final String[] seconds;
+    private final int[] values;
+
+    private int nextVictim = 0;
+    private int size = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public DistanceCache(int capacity) {
+        // Round up to a power of two
+        int slots = Integer.highestOneBit(Math.max(capacity, WAYS) - 1) << 1;
+        mask = slots - 1;
+        keys = new long[slots];
+        firsts = new String[slots];
+        seconds = new String[slots];
+        values = new int[slots];
+    }
+
+    /**
+     * Get the value cached for {@code s} and {@code t} (in any order).
+     *
+     * @return Cached value, or {@link Integer#MIN_VALUE} if there is none
+     */
+    public synchronized int get(String s, String t) {
+        int slot = isFirst(s, t) ? findSlot(s, t) : findSlot(t, s);
+        if (slot == -1) {
+            misses++;
+            return Integer.MIN_VALUE;
+        }
+        hits++;
+        return values[slot];
+    }
+
+    public synchronized void put(String s, String t, int value) {
+        String first = isFirst(s, t) ? s : t;
+        String second = first == s ? t : s;
+        int slot = findSlot(first, second);
+        if (slot == -1) {
+            long key = getKey(first, second);
+            int firstSlot = getFirstSlot(key);
+            for (int i = 0; i < WAYS; i++) {
+                int candidate = (firstSlot + i) & mask;
+                if (firsts[candidate] == null) {
+                    slot = candidate;
+                    size++;
+                    break;
+                }
+            }
+            if (slot == -1) {
+                slot = (firstSlot + nextVictim) & mask;
+                nextVictim = (nextVictim + 1) % WAYS;
+                evictions++;
+            }
+            keys[slot] = key;
+            firsts[slot] = first;
+            seconds[slot] = second;
+        }
+        values[slot] = value;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(firsts, null);
+        Arrays.fill(seconds, null);
+        size = 0;
+    }
+
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double)hits / total;
+    }
+
+    public synchronized String getStatsString() {
+        return String.format("%d hits, %d misses (%.0f%%), %d evictions, %d entries",
+                hits, misses, 100 * getHitRate(), evictions, size);
+    }
+
+    private synchronized int findSlot(String first, String second) {
+        long key = getKey(first, second);
+        int firstSlot = getFirstSlot(key);
+        for (int i = 0; i < WAYS; i++) {
+            int slot = (firstSlot + i) & mask;
+            // Compare the strings only if the hashes match (equals() starts
+            // with an identity check)
+            if (keys[slot] == key && firsts[slot] != null
+                    && firsts[slot].equals(first) && seconds[slot].equals(second)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private synchronized int getFirstSlot(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int)(mixed ^ (mixed >>> 32)) & mask;
+    }
+
+    /**
+     * Order the pair {@code s}, {@code t} so that it has a single key.
+     *
+     * @return Whether {@code s} comes first
+     */
+    private static boolean isFirst(String s, String t) {
+        int sHash = s.hashCode();
+        int tHash = t.hashCode();
+        return sHash != tHash ? sHash < tHash : s.compareTo(t) <= 0;
+    }
+
+    private static long getKey(String first, String second) {
+        return ((long)first.hashCode() << 32) | (second.hashCode() & 0xFFFFFFFFL);
+    }
+
+}
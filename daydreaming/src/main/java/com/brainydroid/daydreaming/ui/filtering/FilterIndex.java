@@ -0,0 +1,314 @@
+package com.brainydroid.daydreaming.ui.filtering;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Possibilities of an auto-complete list, indexed by token.
+ * <p/>
+ * Each possibility is split by {@link MetaString} into tokens (its words
+ * except stopwords, its tags, and its full text), and each token maps to
+ * the ids of the possibilities having it. A {@link PrefixIndex} over the
+ * tokens answers queries. {@link MetaString}s are only instantiated for
+ * the tokens a search hits, so an index read back with {@link #readFrom}
+ * is ready to use without parsing its possibilities again.
+ * <p/>
+ * Large lists are added in three phases: possibilities are parsed and
+ * tokenized in parallel over chunks (one thread per core), the chunks'
+ * tokens are merged in list order (so ids don't depend on scheduling),
+ * then the prefix index is bulk-loaded with a single sort.
+ */
+public class FilterIndex {
+
+    private static String TAG = "FilterIndex";
+
+    private static int FORMAT_VERSION = 1;
+
+    /** Smallest number of new possibilities worth tokenizing in parallel. */
+    public static int PARALLEL_THRESHOLD = 1000;
+    /** Largest number of new tokens inserted one by one rather than sorted in. */
+    public static int INSERT_THRESHOLD = 16;
+
+    private static HashSet<String> stopwords = new HashSet<String>(
+            Arrays.asList(new String[]{"'yourself", "yourselves", "would", "wouldn", "wouldn't",
+                    "yes", "yet", "you", "your", "yours", "whomever", "whose", "why", "will",
+                    "with", "within", "without", "won", "whether", "which", "while", "whither",
+                    "who", "whoever", "whole", "whom", "whereafter", "whereas", "whereby",
+                    "wherein", "whereupon", "wherever", "weren't", "what", "whatever", "when",
+                    "whence", "whenever", "where", "ve", "very", "via", "was", "wasn", "we", "we",
+                    "well", "were", "weren", "unless", "unlike", "unlikely", "until", "up", "upon",
+                    "us", "used", "using", "together", "too", "toward", "towards", "trillion",
+                    "twenty", "two", "under", "thousand", "three", "through", "throughout", "thru",
+                    "thus", "to", "thereupon", "these", "they", "thirty", "this", "those",
+                    "though", "thence", "there", "thereafter", "thereby", "therefore", "therein",
+                    "ten", "than", "that", "the", "their", "them", "themselves", "then",
+                    "sometime", "sometimes", "somewhere", "still", "stop", "such", "taking",
+                    "since", "six", "sixty", "so", "some", "somehow", "someone", "something",
+                    "seven", "seventy", "several", "she", "should", "shouldn", "shouldn't", "re",
+                    "recent", "recently", "same", "seem", "seemed", "seeming", "seems",
+                    "ourselves", "out", "over", "overall", "own", "per", "perhaps", "rather",
+                    "only", "onto", "or", "others", "otherwise", "our", "ours", "nothing", "now",
+                    "nowhere", "of", "off", "often", "on", "once", "one", "ninety", "no", "nobody",
+                    "none", "nonetheless", "noone", "nor", "not", "my", "myself", "namely",
+                    "neither", "never", "nevertheless", "next", "nine", "miss", "more", "moreover",
+                    "most", "mostly", "mr", "mrs", "much", "must", "makes", "many", "maybe", "me",
+                    "meantime", "meanwhile", "might", "million", "least", "less", "let", "like",
+                    "likely", "ll", "ltd", "made", "make", "isn", "isn't", "it", "its", "itself",
+                    "last", "later", "latter", "latterly", "ie", "i.e.", "if", "in", "inc", "inc.",
+                    "indeed", "instead", "into", "is", "hers", "herself", "him", "himself", "his",
+                    "how", "however", "hundred", "he", "hence", "her", "here", "hereafter",
+                    "hereby", "herein", "hereupon", "further", "had", "has", "hasn", "hasn't",
+                    "have", "haven", "haven't", "five", "for", "former", "formerly", "forty",
+                    "found", "four", "from", "everyone", "everything", "everywhere", "except",
+                    "few", "fifty", "first", "elsewhere", "end", "ending", "enough", "etc", "even",
+                    "ever", "every", "don't", "down", "during", "each", "eg", "eight", "eighty",
+                    "either", "else", "couldn't", "did", "didn", "didn't", "do", "does",
+                    "doesn", "doesn't", "don", "but", "by", "can", "can't", "cannot",
+                    "caption", "co", "could", "couldn", "being", "below", "beside", "besides",
+                    "between", "beyond", "billion", "both", "becoming", "been", "before",
+                    "beforehand", "begin", "beginning", "behind", "aren't", "around", "as",
+                    "at", "be", "became", "because", "become", "becomes", "another", "any",
+                    "anyhow", "anyone", "anything", "anywhere", "are", "aren", "already", "also",
+                    "although", "always", "among", "amongst", "an", "and", "afterwards", "again",
+                    "against", "all", "almost", "alone", "along", "a", "above", "according",
+                    "across", "actually", "adj", "after'"}));
+
+    private final ArrayList<String> definitions = new ArrayList<String>();
+    private final HashMap<String, Integer> definitionIds = new HashMap<String, Integer>();
+    private final HashMap<String, int[]> postings = new HashMap<String, int[]>();
+    private final PrefixIndex prefixIndex = new PrefixIndex();
+
+    public synchronized boolean contains(String possibility) {
+        return definitionIds.containsKey(possibility);
+    }
+
+    /**
+     * Check if the index holds exactly {@code possibilities}.
+     */
+    public synchronized boolean hasPossibilities(Collection<String> possibilities) {
+        return definitionIds.keySet().equals(new HashSet<String>(possibilities));
+    }
+
+    public synchronized boolean add(String possibility) {
+        return addAll(Arrays.asList(possibility)) == 1;
+    }
+
+    /**
+     * Add all the {@code possibilities} not already in the index.
+     *
+     * @return Number of possibilities added
+     */
+    public synchronized int addAll(Collection<String> possibilities) {
+        // Keep the new possibilities only, once each
+        LinkedHashSet<String> newPossibilities = new LinkedHashSet<String>();
+        for (String possibility : possibilities) {
+            if (!definitionIds.containsKey(possibility)) {
+                newPossibilities.add(possibility);
+            }
+        }
+        ArrayList<String> toAdd = new ArrayList<String>(newPossibilities);
+        List<LinkedHashSet<String>> allTokens = tokenize(toAdd);
+
+        HashSet<String> newTokens = new HashSet<String>();
+        for (int i = 0; i < toAdd.size(); i++) {
+            String possibility = toAdd.get(i);
+            int id = definitions.size();
+            definitions.add(possibility);
+            definitionIds.put(possibility, id);
+
+            for (String token : allTokens.get(i)) {
+                int[] ids = postings.get(token);
+                if (ids == null) {
+                    postings.put(token, new int[] {id});
+                    newTokens.add(token);
+                } else {
+                    int[] newIds = new int[ids.length + 1];
+                    System.arraycopy(ids, 0, newIds, 0, ids.length);
+                    newIds[ids.length] = id;
+                    postings.put(token, newIds);
+                }
+            }
+        }
+
+        // A few tokens (e.g. of one possibility added by the user) are quicker
+        // to insert in place than to sort in with all the others
+        if (newTokens.size() <= INSERT_THRESHOLD) {
+            for (String token : newTokens) {
+                prefixIndex.add(token);
+            }
+        } else {
+            prefixIndex.addAll(newTokens);
+        }
+        return toAdd.size();
+    }
+
+    /**
+     * Get the tokens of each possibility, in parallel if there are enough of
+     * them and more than one core.
+     */
+    private static List<LinkedHashSet<String>> tokenize(final List<String> possibilities) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (threads < 2 || possibilities.size() < PARALLEL_THRESHOLD) {
+            return tokenizeChunk(possibilities);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Future<List<LinkedHashSet<String>>>> chunks =
+                    new ArrayList<Future<List<LinkedHashSet<String>>>>(threads);
+            int chunkSize = (possibilities.size() + threads - 1) / threads;
+            for (int from = 0; from < possibilities.size(); from += chunkSize) {
+                final List<String> chunk = possibilities.subList(from,
+                        Math.min(from + chunkSize, possibilities.size()));
+                chunks.add(executor.submit(new Callable<List<LinkedHashSet<String>>>() {
+
+                    @Override
+                    public List<LinkedHashSet<String>> call() {
+                        return tokenizeChunk(chunk);
+                    }
+
+                }));
+            }
+
+            ArrayList<LinkedHashSet<String>> allTokens =
+                    new ArrayList<LinkedHashSet<String>>(possibilities.size());
+            for (Future<List<LinkedHashSet<String>>> chunk : chunks) {
+                allTokens.addAll(chunk.get());
+            }
+            return allTokens;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while tokenizing possibilities", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error while tokenizing possibilities", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static List<LinkedHashSet<String>> tokenizeChunk(List<String> possibilities) {
+        ArrayList<LinkedHashSet<String>> allTokens =
+                new ArrayList<LinkedHashSet<String>>(possibilities.size());
+        for (String possibility : possibilities) {
+            allTokens.add(getTokens(possibility));
+        }
+        return allTokens;
+    }
+
+    private static LinkedHashSet<String> getTokens(String possibility) {
+        MetaString ms = MetaString.getInstance(possibility);
+        LinkedHashSet<String> tokens = new LinkedHashSet<String>();
+        for (String token : ms.getTokens()) {
+            if (!stopwords.contains(token)) tokens.add(token);
+        }
+        tokens.addAll(ms.getTags());
+        tokens.add(ms.getLower());
+        return tokens;
+    }
+
+    /**
+     * Add to {@code tokens} the tokens with a prefix close to {@code query},
+     * see {@link PrefixIndex#searchPrefixes}.
+     */
+    public synchronized void searchTokens(String query, int radius, int minLength,
+                                          Collection<String> tokens,
+                                          ICancellation cancellation) {
+        prefixIndex.searchPrefixes(query, radius, minLength, tokens, cancellation);
+    }
+
+    /**
+     * Add to {@code results} the possibilities having {@code token}, if any.
+     */
+    public synchronized void addMetaStrings(String token, Collection<MetaString> results) {
+        int[] ids = postings.get(token);
+        if (ids == null) return;
+        for (int id : ids) {
+            results.add(MetaString.getInstance(definitions.get(id)));
+        }
+    }
+
+    public synchronized int getSize() {
+        return definitions.size();
+    }
+
+    public synchronized int getTokenCount() {
+        return prefixIndex.getSize();
+    }
+
+    public synchronized long getMemoryFootprint() {
+        return prefixIndex.getMemoryFootprint();
+    }
+
+    /**
+     * Write the index in a compact binary form: possibilities, then tokens
+     * in sorted order with the ids of their possibilities.
+     */
+    public synchronized void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(definitions.size());
+        for (String definition : definitions) {
+            out.writeUTF(definition);
+        }
+
+        ArrayList<String> tokens = new ArrayList<String>(postings.keySet());
+        Collections.sort(tokens);
+        out.writeInt(tokens.size());
+        for (String token : tokens) {
+            int[] ids = postings.get(token);
+            out.writeUTF(token);
+            out.writeInt(ids.length);
+            for (int id : ids) {
+                out.writeInt(id);
+            }
+        }
+    }
+
+    public static FilterIndex readFrom(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported index format version " + version);
+        }
+
+        FilterIndex index = new FilterIndex();
+        int definitionCount = in.readInt();
+        for (int i = 0; i < definitionCount; i++) {
+            String definition = in.readUTF();
+            index.definitions.add(definition);
+            index.definitionIds.put(definition, i);
+        }
+
+        int tokenCount = in.readInt();
+        ArrayList<String> tokens = new ArrayList<String>(tokenCount);
+        for (int i = 0; i < tokenCount; i++) {
+            String token = in.readUTF();
+            int[] ids = new int[in.readInt()];
+            for (int j = 0; j < ids.length; j++) {
+                ids[j] = in.readInt();
+                if (ids[j] < 0 || ids[j] >= definitionCount) {
+                    throw new IOException("Invalid possibility id in index");
+                }
+            }
+            index.postings.put(token, ids);
+            tokens.add(token);
+        }
+
+        // Tokens were written sorted, so this is quick
+        index.prefixIndex.addAll(tokens);
+        return index;
+    }
+
+}
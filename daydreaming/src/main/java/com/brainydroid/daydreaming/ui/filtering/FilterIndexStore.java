@@ -0,0 +1,306 @@
+package com.brainydroid.daydreaming.ui.filtering;
+
+import android.annotation.SuppressLint;
+import android.app.Application;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.brainydroid.daydreaming.background.Logger;
+import com.brainydroid.daydreaming.db.AutoListQuestionDescriptionDetails;
+import com.brainydroid.daydreaming.db.IQuestionDescriptionDetails;
+import com.brainydroid.daydreaming.db.ManySlidersQuestionDescriptionDetails;
+import com.brainydroid.daydreaming.db.QuestionDescription;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keep the {@link FilterIndex} of each auto-complete possibility list, in
+ * memory and on disk, so that question pages don't rebuild them.
+ * <p/>
+ * Indexes are identified by the hash of their possibility list, so the same
+ * list gets the same index whichever question or app mode asks for it.
+ * Indexes read from disk are checked against the list itself, and indexes in
+ * memory against a fingerprint of it, which is cheap enough for the UI
+ * thread. {@link #prebuild} builds and saves the
+ * indexes of all the questions when the parameters of a mode are imported;
+ * after that {@link #getIndex} serves them from memory, or from disk after
+ * the process restarted. Each mode remembers the indexes of its last
+ * import, and an index is only deleted once no mode uses it any more.
+ * <p/>
+ * Indexes are shared between all the adapters of a list, and must not be
+ * modified: possibilities added by the user go on top of them, see {@link
+ * Filterer#initialize}. The store's lock only guards the in-memory indexes,
+ * and is never held while an index is built, read or written. Two threads
+ * asking for the same missing index may both build it, and the first one
+ * published wins.
+ */
+@Singleton
+public class FilterIndexStore {
+
+    private static String TAG = "FilterIndexStore";
+
+    private static String STORAGE_DIRNAME = "filterIndexes";
+    private static String INDEX_PREFIX = "index_";
+    private static String TMP_SUFFIX = ".tmp";
+    private static int BUFFER_SIZE = 8 * 1024;
+
+    private static String MODE_KEYS_PREFIX = "filterIndexStore_keys_";
+    private static String SEPARATOR = ",";
+
+    private static long FINGERPRINT_PRIME = 0x100000001b3L;
+
+    private File storageDir;
+    private HashMap<Integer, FilterIndex> indexes = new HashMap<Integer, FilterIndex>();
+    private HashMap<Integer, Long> fingerprints = new HashMap<Integer, Long>();
+
+    private SharedPreferences sharedPreferences;
+    private SharedPreferences.Editor eSharedPreferences;
+
+    @SuppressLint("CommitPrefEdits")
+    @Inject
+    public FilterIndexStore(Application application, SharedPreferences sharedPreferences) {
+        Logger.d(TAG, "Initializing FilterIndexStore");
+        storageDir = application.getDir(STORAGE_DIRNAME, Context.MODE_PRIVATE);
+        this.sharedPreferences = sharedPreferences;
+        eSharedPreferences = sharedPreferences.edit();
+    }
+
+    /**
+     * Get the index of {@code possibilities} if it is in memory, without
+     * loading or building it. This can be called on the UI thread.
+     */
+    public FilterIndex getLoadedIndex(ArrayList<String> possibilities) {
+        return getLoadedIndex(possibilities.hashCode(), getFingerprint(possibilities));
+    }
+
+    private synchronized FilterIndex getLoadedIndex(int key, long fingerprint) {
+        Long loadedFingerprint = fingerprints.get(key);
+        return loadedFingerprint != null && loadedFingerprint == fingerprint ?
+                indexes.get(key) : null;
+    }
+
+    /**
+     * Digest {@code possibilities}, in order, along with their number.
+     * Strings cache their hash, so this doesn't go through their characters
+     * again.
+     */
+    private static long getFingerprint(List<String> possibilities) {
+        long fingerprint = possibilities.size();
+        for (String possibility : possibilities) {
+            fingerprint = (fingerprint ^ possibility.hashCode()) * FINGERPRINT_PRIME;
+            fingerprint = (fingerprint ^ possibility.length()) * FINGERPRINT_PRIME;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Get the index of {@code possibilities}, loading it from disk or
+     * building it (and saving it) if it is not in memory. Don't call this on
+     * the UI thread.
+     */
+    public FilterIndex getIndex(ArrayList<String> possibilities) {
+        int key = possibilities.hashCode();
+        long fingerprint = getFingerprint(possibilities);
+        FilterIndex index = getLoadedIndex(key, fingerprint);
+        if (index != null) {
+            Logger.v(TAG, "Index found in memory");
+            return index;
+        }
+
+        index = load(key);
+        if (index == null || !index.hasPossibilities(possibilities)) {
+            long start = System.currentTimeMillis();
+            index = new FilterIndex();
+            index.addAll(possibilities);
+            Logger.i(TAG, "Built index of {0} possibilities in {1}ms on {2} cores " +
+                    "({3} tokens, {4} bytes)", index.getSize(),
+                    System.currentTimeMillis() - start,
+                    Runtime.getRuntime().availableProcessors(), index.getTokenCount(),
+                    index.getMemoryFootprint());
+            save(key, index);
+        }
+
+        return publish(key, fingerprint, index);
+    }
+
+    /**
+     * Keep {@code index} in memory, unless another thread got there first.
+     *
+     * @return The index kept in memory
+     */
+    private synchronized FilterIndex publish(int key, long fingerprint, FilterIndex index) {
+        FilterIndex published = getLoadedIndex(key, fingerprint);
+        if (published != null) {
+            Logger.v(TAG, "Index was published meanwhile, dropping ours");
+            return published;
+        }
+        indexes.put(key, index);
+        fingerprints.put(key, fingerprint);
+        return index;
+    }
+
+    /**
+     * Build and save, in the background, the indexes of all the auto-complete
+     * questions in {@code questions}, imported for mode {@code modeName}.
+     * Indexes no mode uses any more are then deleted.
+     */
+    public void prebuild(final String modeName, ArrayList<QuestionDescription> questions) {
+        final ArrayList<ArrayList<String>> possibilityLists =
+                new ArrayList<ArrayList<String>>();
+        for (QuestionDescription question : questions) {
+            IQuestionDescriptionDetails details = question.getDetails();
+            if (details instanceof AutoListQuestionDescriptionDetails) {
+                possibilityLists.add(
+                        ((AutoListQuestionDescriptionDetails)details).getPossibilities());
+            } else if (details instanceof ManySlidersQuestionDescriptionDetails) {
+                possibilityLists.add(
+                        ((ManySlidersQuestionDescriptionDetails)details).getAvailableSliders());
+            }
+        }
+
+        Thread indexWorker = new Thread(new Runnable() {
+
+            private String TAG = "indexWorker";
+
+            @Override
+            public void run() {
+                Logger.d(TAG, "Worker building {0} auto-complete indexes",
+                        possibilityLists.size());
+                HashSet<Integer> keys = new HashSet<Integer>();
+                for (ArrayList<String> possibilities : possibilityLists) {
+                    getIndex(possibilities);
+                    keys.add(possibilities.hashCode());
+                }
+                setModeKeys(modeName, keys);
+                retainOnly(getAllModesKeys());
+            }
+
+        });
+
+        Logger.i(TAG, "Launching asynchronous auto-complete index build");
+        indexWorker.start();
+    }
+
+    private synchronized void setModeKeys(String modeName, HashSet<Integer> keys) {
+        StringBuilder keysBuilder = new StringBuilder();
+        for (int key : keys) {
+            if (keysBuilder.length() > 0) {
+                keysBuilder.append(SEPARATOR);
+            }
+            keysBuilder.append(Integer.toHexString(key));
+        }
+        eSharedPreferences.putString(MODE_KEYS_PREFIX + modeName, keysBuilder.toString());
+        eSharedPreferences.commit();
+    }
+
+    /**
+     * Get the keys of the indexes used by any mode.
+     */
+    private synchronized HashSet<Integer> getAllModesKeys() {
+        HashSet<Integer> keys = new HashSet<Integer>();
+        for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet()) {
+            if (!entry.getKey().startsWith(MODE_KEYS_PREFIX)) continue;
+
+            for (String key : ((String)entry.getValue()).split(SEPARATOR)) {
+                if (key.length() > 0) {
+                    keys.add((int)Long.parseLong(key, 16));
+                }
+            }
+        }
+        return keys;
+    }
+
+    private synchronized void retainOnly(HashSet<Integer> keys) {
+        indexes.keySet().retainAll(keys);
+        fingerprints.keySet().retainAll(keys);
+        File[] files = storageDir.listFiles();
+        if (files == null) return;
+
+        for (File file : files) {
+            if (!keys.contains(getKey(file)) && !file.delete()) {
+                Logger.w(TAG, "Could not delete unused index {0}", file.getName());
+            }
+        }
+    }
+
+    private File getIndexFile(int key) {
+        return new File(storageDir, INDEX_PREFIX + Integer.toHexString(key));
+    }
+
+    private Integer getKey(File file) {
+        String name = file.getName();
+        if (!name.startsWith(INDEX_PREFIX) || name.endsWith(TMP_SUFFIX)) return null;
+        try {
+            return (int)Long.parseLong(name.substring(INDEX_PREFIX.length()), 16);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private FilterIndex load(int key) {
+        File indexFile = getIndexFile(key);
+        if (!indexFile.exists()) {
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(indexFile), BUFFER_SIZE));
+            try {
+                long start = System.currentTimeMillis();
+                FilterIndex index = FilterIndex.readFrom(in);
+                Logger.d(TAG, "Loaded index of {0} possibilities in {1}ms", index.getSize(),
+                        System.currentTimeMillis() - start);
+                return index;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Logger.e(TAG, "Could not read index {0}, rebuilding it", indexFile.getName());
+            return null;
+        }
+    }
+
+    private void save(int key, FilterIndex index) {
+        // Write to a temporary file of our own first, so that a crash or
+        // another thread saving the same index doesn't leave a truncated
+        // index behind
+        File indexFile = getIndexFile(key);
+        File tmpFile = null;
+        try {
+            tmpFile = File.createTempFile(indexFile.getName(), TMP_SUFFIX, storageDir);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmpFile), BUFFER_SIZE));
+            try {
+                index.writeTo(out);
+            } finally {
+                out.close();
+            }
+            if (!tmpFile.renameTo(indexFile)) {
+                throw new IOException("Could not rename temporary index file");
+            }
+        } catch (IOException e) {
+            Logger.e(TAG, "Could not save index {0}, it will be rebuilt next time",
+                    indexFile.getName());
+            if (tmpFile != null) {
+                //noinspection ResultOfMethodCallIgnored
+                tmpFile.delete();
+            }
+        }
+    }
+
+}
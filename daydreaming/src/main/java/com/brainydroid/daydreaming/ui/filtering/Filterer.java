@@ -6,318 +6,270 @@ import com.brainydroid.daydreaming.background.Logger;
 import com.google.inject.Inject;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-
+import java.util.PriorityQueue;
+
+/**
+ * Filter possibilities for an {@link AutoCompleteAdapter}.
+ * <p/>
+ * Filtering runs on the {@link Filter}'s worker thread, one query at a
+ * time. Each change of the query text ({@link #onQueryChanged}) increases a
+ * generation counter, and a search in progress checks it during debounce,
+ * the index walk and ranking: as soon as a newer query exists the search
+ * gives up, publishes nothing, and the worker moves on to the newest query.
+ * Searches first wait {@link #DEBOUNCE_DELAY}, so that fast typing only
+ * searches for the last keystroke.
+ */
 public class Filterer extends Filter {
 
     private static String TAG = "Filterer";
-    
-    private static HashSet<String> stopwords = new HashSet<String>(
-            Arrays.asList(new String[]{"'yourself", "yourselves", "would", "wouldn", "wouldn't",
-                    "yes", "yet", "you", "your", "yours", "whomever", "whose", "why", "will",
-                    "with", "within", "without", "won", "whether", "which", "while", "whither",
-                    "who", "whoever", "whole", "whom", "whereafter", "whereas", "whereby",
-                    "wherein", "whereupon", "wherever", "weren't", "what", "whatever", "when",
-                    "whence", "whenever", "where", "ve", "very", "via", "was", "wasn", "we", "we",
-                    "well", "were", "weren", "unless", "unlike", "unlikely", "until", "up", "upon",
-                    "us", "used", "using", "together", "too", "toward", "towards", "trillion",
-                    "twenty", "two", "under", "thousand", "three", "through", "throughout", "thru",
-                    "thus", "to", "thereupon", "these", "they", "thirty", "this", "those",
-                    "though", "thence", "there", "thereafter", "thereby", "therefore", "therein",
-                    "ten", "than", "that", "the", "their", "them", "themselves", "then",
-                    "sometime", "sometimes", "somewhere", "still", "stop", "such", "taking",
-                    "since", "six", "sixty", "so", "some", "somehow", "someone", "something",
-                    "seven", "seventy", "several", "she", "should", "shouldn", "shouldn't", "re",
-                    "recent", "recently", "same", "seem", "seemed", "seeming", "seems",
-                    "ourselves", "out", "over", "overall", "own", "per", "perhaps", "rather",
-                    "only", "onto", "or", "others", "otherwise", "our", "ours", "nothing", "now",
-                    "nowhere", "of", "off", "often", "on", "once", "one", "ninety", "no", "nobody",
-                    "none", "nonetheless", "noone", "nor", "not", "my", "myself", "namely",
-                    "neither", "never", "nevertheless", "next", "nine", "miss", "more", "moreover",
-                    "most", "mostly", "mr", "mrs", "much", "must", "makes", "many", "maybe", "me",
-                    "meantime", "meanwhile", "might", "million", "least", "less", "let", "like",
-                    "likely", "ll", "ltd", "made", "make", "isn", "isn't", "it", "its", "itself",
-                    "last", "later", "latter", "latterly", "ie", "i.e.", "if", "in", "inc", "inc.",
-                    "indeed", "instead", "into", "is", "hers", "herself", "him", "himself", "his",
-                    "how", "however", "hundred", "he", "hence", "her", "here", "hereafter",
-                    "hereby", "herein", "hereupon", "further", "had", "has", "hasn", "hasn't",
-                    "have", "haven", "haven't", "five", "for", "former", "formerly", "forty",
-                    "found", "four", "from", "everyone", "everything", "everywhere", "except",
-                    "few", "fifty", "first", "elsewhere", "end", "ending", "enough", "etc", "even",
-                    "ever", "every", "don't", "down", "during", "each", "eg", "eight", "eighty",
-                    "either", "else", "couldn't", "did", "didn", "didn't", "do", "does",
-                    "doesn", "doesn't", "don", "but", "by", "can", "can't", "cannot",
-                    "caption", "co", "could", "couldn", "being", "below", "beside", "besides",
-                    "between", "beyond", "billion", "both", "becoming", "been", "before",
-                    "beforehand", "begin", "beginning", "behind", "aren't", "around", "as",
-                    "at", "be", "became", "because", "become", "becomes", "another", "any",
-                    "anyhow", "anyone", "anything", "anywhere", "are", "aren", "already", "also",
-                    "although", "always", "among", "amongst", "an", "and", "afterwards", "again",
-                    "against", "all", "almost", "alone", "along", "a", "above", "according",
-                    "across", "actually", "adj", "after'"}));
+
+    /** How long a search waits for more keystrokes before starting. */
+    public static long DEBOUNCE_DELAY = 100;  // 100 ms
+
+    // Shortest token prefix a query can match
+    private static int MIN_PREFIX_LENGTH = 2;
+    // Marks the results of a cancelled search, which aren't published
+    private static Object CANCELLED = new Object();
 
     private AutoCompleteAdapter adapter;
 
     @Inject private Timer timer;
-    @Inject private HashSet<String> possibilities;
-    @Inject private HashMap<String, HashSet<MetaString>> tokenMap;
-    @Inject private HashMap<String, HashSet<String>> matchMap;
-    @Inject private Tree<String> bkTree;
     @Inject private LevenshteinDistance distance;
 
+    // Index of the question's possibilities, possibly shared with other
+    // Filterers (and then never modified), and index of the possibilities
+    // added on top of it
+    private FilterIndex baseIndex;
+    @Inject private FilterIndex addedIndex;
+
+    // Last search, to narrow down its tokens if the next query extends it.
+    // indexVersion changes each time the index does, making it stale.
+    private int indexVersion = 0;
+    private String lastQuery = null;
+    private int lastRadius;
+    private HashSet<String> lastTokens = null;
+
+    private volatile int generation = 0;
+    private int searchesStarted = 0;
+    private int searchesCancelled = 0;
+    private int searchesPublished = 0;
+
     public void addPossibility(String possibility) {
-        if (!possibilities.contains(possibility)) {
-            Logger.d(TAG, "Adding possibility {}", possibility);
-            possibilities.add(possibility);
-            HashMap<String, HashSet<String>> newMatches = addToMatchMap(possibility);
-            updateBKTree(newMatches);
+        if (!baseIndex.contains(possibility) && !addedIndex.contains(possibility)) {
+            Logger.d(TAG, "Adding possibility {0}", possibility);
+            addedIndex.add(possibility);
+            forgetLastSearch();
         } else {
             Logger.d(TAG, "Possibility already present, not adding it again");
         }
     }
 
-    public void initialize(AutoCompleteAdapter adapter, ArrayList<String> possibilitiesArray) {
+    /**
+     * Initialize with a prebuilt index (which is not modified), adding
+     * {@code addedPossibilities} on top of it.
+     */
+    public void initialize(AutoCompleteAdapter adapter, FilterIndex baseIndex,
+                           ArrayList<String> addedPossibilities) {
         Logger.d(TAG, "Initializing");
         timer.start("Filterer initialization");
 
         this.adapter = adapter;
-        possibilities.addAll(possibilitiesArray);
+        this.baseIndex = baseIndex;
+        for (String possibility : addedPossibilities) {
+            if (!baseIndex.contains(possibility)) {
+                addedIndex.add(possibility);
+            }
+        }
+        forgetLastSearch();
 
-        buildMatchMap();
-        buildBKTree();
+        Logger.i(TAG, "Finished initializing ({0}ms, {1} + {2} possibilities)",
+                timer.finish("Filterer initialization"), baseIndex.getSize(),
+                addedIndex.getSize());
+    }
 
-        Logger.i(TAG, "Finished initializing ({}ms)", timer.finish("Filterer initialization"));
+    /**
+     * Record that the query text changed, making any search in progress
+     * stale.
+     */
+    public synchronized void onQueryChanged() {
+        generation++;
     }
 
-    public ArrayList<MetaString> search(String query) {
+    /**
+     * Search for {@code query}.
+     *
+     * @return Results, or {@code null} if {@code cancellation} (which can be
+     *         {@code null}) reported the search was cancelled
+     */
+    public ArrayList<MetaString> search(String query, ICancellation cancellation) {
         int distance = 0;
         if (query.length() >= 2) distance = 1;
-        return search(query.toLowerCase(), distance);
+        return search(query.toLowerCase(), distance, cancellation);
     }
 
-    private ArrayList<MetaString> search(final String query, int radius) {
-        // Get the results from the BK tree
-        HashSet<String> bkResults = new HashSet<String>();
-        _searchBKTree(bkTree, query, radius, bkResults);
-        HashSet<String> filteredResults = filterExcludedDifferences(query, bkResults);
-
-        // Convert to original tokens
-        HashSet<String> tokens = new HashSet<String>();
-        for (String subString : filteredResults) {
-            tokens.addAll(matchMap.get(subString));
-        }
+    private ArrayList<MetaString> search(String query, int radius,
+                                         ICancellation cancellation) {
+        // Get the tokens with a prefix close to the query (and starting like it)
+        HashSet<String> tokens = findTokens(query, radius, cancellation);
+        if (tokens == null) return null;
 
         // Convert back to original strings
         HashSet<MetaString> preResults = new HashSet<MetaString>();
-        for (String suffix : tokens) {
-            preResults.addAll(tokenMap.get(suffix));
-        }
-
-        // Re-order
-        ArrayList<MetaString> results = new ArrayList<MetaString>(preResults);
-        Comparator<MetaString> comparator = new Comparator<MetaString>() {
-            @Override
-            public int compare(MetaString ms1, MetaString ms2) {
-                return distance.metaDistance(query, ms1) -
-                        distance.metaDistance(query, ms2);
-            }
-        };
-
-        Collections.sort(results, comparator);
-        return results;
-    }
-
-    private static HashSet<String> filterExcludedDifferences(String query, HashSet<String> bkResults) {
-        HashSet<String> filteredResults = new HashSet<String>();
-        char firstQueryChar = query.charAt(0);
-        for (String bkResult : bkResults) {
-            if (bkResult.charAt(0) == firstQueryChar) {
-                filteredResults.add(bkResult);
-            }
+        for (String token : tokens) {
+            baseIndex.addMetaStrings(token, preResults);
+            addedIndex.addMetaStrings(token, preResults);
         }
-        return filteredResults;
-    }
-
-    private void _searchBKTree(Tree<String> tree, String query, int radius, HashSet<String> results) {
-        // Get root string and distance to query
-        String root = tree.getData();
-        int d = distance.distance(root, query);
 
-        // Add root if we can
-        if (d <= radius) {
-            results.add(root);
-        }
-
-        // Search all sub-trees at the right distance
-        for (Map.Entry<Integer, Tree<String>> child : tree.getChildren().entrySet()) {
-            if (child.getKey() <= d + radius) {
-                _searchBKTree(child.getValue(), query, radius, results);
-            }
-        }
-    }
-
-    private void buildMatchMap() {
-        buildTokenMap();
-        Logger.d(TAG, "Building match map");
-
-        for (String token : tokenMap.keySet()) {
-            for (int i = 2; i <= token.length(); i++) {
-                String prefix = token.substring(0, i);
-                if (!matchMap.containsKey(prefix)) {
-                    matchMap.put(prefix, new HashSet<String>());
-                }
-                matchMap.get(prefix).add(token);
-            }
-        }
-    }
-
-    private HashMap<String, HashSet<String>> addToMatchMap(String newString) {
-        HashMap<String, HashSet<MetaString>> newTokens = addToTokenMap(newString);
-
-        Logger.d(TAG, "Adding {} to matchMap", newString);
-        HashMap<String, HashSet<String>> newMatches = new HashMap<String, HashSet<String>>();
-
-        for (String token : newTokens.keySet()) {
-            for (int i = 2; i <= token.length(); i++) {
-                String prefix = token.substring(0, i);
-                if (!matchMap.containsKey(prefix)) {
-                    matchMap.put(prefix, new HashSet<String>());
+        // Score each candidate once. Substring matches (score 0) are all
+        // kept, and the best fuzzy ones in a heap whose head is the worst
+        // one kept
+        int maxFuzzyResults = AutoCompleteAdapter.MAX_FUZZY_RESULTS;
+        ArrayList<ScoredResult> exact = new ArrayList<ScoredResult>();
+        PriorityQueue<ScoredResult> fuzzy = new PriorityQueue<ScoredResult>(
+                maxFuzzyResults + 1, Collections.reverseOrder());
+        for (MetaString ms : preResults) {
+            if (cancellation != null && cancellation.isCancelled()) return null;
+
+            if (fuzzy.size() < maxFuzzyResults) {
+                ScoredResult candidate = new ScoredResult(ms, distance.metaDistance(query, ms));
+                if (candidate.score == 0) {
+                    exact.add(candidate);
+                } else {
+                    fuzzy.add(candidate);
                 }
-                if (!newMatches.containsKey(prefix)) {
-                    newMatches.put(prefix, new HashSet<String>());
+            } else {
+                // Substring matches always score 0, and other candidates can
+                // only enter by scoring at most as badly as the worst kept
+                int limit = fuzzy.peek().score;
+                int score = distance.metaDistance(query, ms, limit);
+                if (score > limit) continue;
+                ScoredResult candidate = new ScoredResult(ms, score);
+                if (score == 0) {
+                    exact.add(candidate);
+                } else if (candidate.compareTo(fuzzy.peek()) < 0) {
+                    fuzzy.poll();
+                    fuzzy.add(candidate);
                 }
-                matchMap.get(prefix).add(token);
-                newMatches.get(prefix).add(token);
             }
         }
 
-        return newMatches;
+        // Re-order
+        ArrayList<ScoredResult> sorted = new ArrayList<ScoredResult>(exact);
+        sorted.addAll(fuzzy);
+        Collections.sort(sorted);
+        ArrayList<MetaString> results = new ArrayList<MetaString>(sorted.size());
+        for (ScoredResult result : sorted) {
+            results.add(result.ms);
+        }
+        return results;
     }
 
-    private void buildTokenMap() {
-        Logger.d(TAG, "Building token map");
-
-        for (String s : possibilities) {
-            MetaString ms = MetaString.getInstance(s);
-
-            // Add tokens
-            for (String token : ms.getTokens()) {
-                if (stopwords.contains(token)) continue;
-                if (!tokenMap.containsKey(token)) {
-                    tokenMap.put(token, new HashSet<MetaString>());
+    private HashSet<String> findTokens(String query, int radius,
+                                       ICancellation cancellation) {
+        int version = getIndexVersion();
+        HashSet<String> tokens = new HashSet<String>();
+        HashSet<String> previousTokens = getLastTokens(query, radius);
+
+        if (previousTokens != null) {
+            // Extending the query can only drop tokens (with a radius of 1 and
+            // queries of at least MIN_PREFIX_LENGTH), so re-check the last ones
+            timer.start("incremental token search");
+            for (String token : previousTokens) {
+                if (cancellation != null && cancellation.isCancelled()) break;
+                if (PrefixIndex.hasPrefixWithin(token, query, radius, MIN_PREFIX_LENGTH)) {
+                    tokens.add(token);
                 }
-                tokenMap.get(token).add(ms);
             }
-
-            // Add tags
-            for (String tag : ms.getTags()) {
-                if (!tokenMap.containsKey(tag)) {
-                    tokenMap.put(tag, new HashSet<MetaString>());
-                }
-                tokenMap.get(tag).add(ms);
+            if (cancellation != null && cancellation.isCancelled()) {
+                timer.cancel("incremental token search");
+                return null;
             }
-
-            // Finally, add full text
-            if (!tokenMap.containsKey(ms.getLower())) {
-                tokenMap.put(ms.getLower(), new HashSet<MetaString>());
+            long elapsed = timer.finish("incremental token search");
+            Logger.v(TAG, "Narrowed {0} tokens down to {1} ({2}ms)", previousTokens.size(),
+                    tokens.size(), elapsed);
+        } else {
+            timer.start("full token search");
+            baseIndex.searchTokens(query, radius, MIN_PREFIX_LENGTH, tokens, cancellation);
+            addedIndex.searchTokens(query, radius, MIN_PREFIX_LENGTH, tokens, cancellation);
+            // Incomplete tokens mustn't be narrowed down later
+            if (cancellation != null && cancellation.isCancelled()) {
+                timer.cancel("full token search");
+                return null;
             }
-            tokenMap.get(ms.getLower()).add(ms);
+            long elapsed = timer.finish("full token search");
+            Logger.v(TAG, "Found {0} tokens ({1}ms)", tokens.size(), elapsed);
         }
-    }
 
-    private HashMap<String, HashSet<MetaString>> addToTokenMap(String newString) {
-        Logger.d(TAG, "Adding {} to tokenMap", newString);
+        setLastTokens(version, query, radius, tokens);
+        return tokens;
+    }
 
-        MetaString ms = MetaString.getInstance(newString);
-        HashMap<String, HashSet<MetaString>> newTokens = new HashMap<String, HashSet<MetaString>>();
+    private synchronized int getIndexVersion() {
+        return indexVersion;
+    }
 
-        // Add tokens
-        for (String token : ms.getTokens()) {
-            if (stopwords.contains(token)) continue;
-            if (!tokenMap.containsKey(token)) {
-                tokenMap.put(token, new HashSet<MetaString>());
-            }
-            if (!newTokens.containsKey(token)) {
-                newTokens.put(token, new HashSet<MetaString>());
-            }
-            tokenMap.get(token).add(ms);
-            newTokens.get(token).add(ms);
-        }
-
-        // Add tags
-        for (String tag : ms.getTags()) {
-            if (!tokenMap.containsKey(tag)) {
-                tokenMap.put(tag, new HashSet<MetaString>());
-            }
-            if (!newTokens.containsKey(tag)) {
-                newTokens.put(tag, new HashSet<MetaString>());
-            }
-            tokenMap.get(tag).add(ms);
-            newTokens.get(tag).add(ms);
+    private synchronized HashSet<String> getLastTokens(String query, int radius) {
+        if (lastQuery != null && radius == lastRadius && query.startsWith(lastQuery)) {
+            return lastTokens;
         }
+        return null;
+    }
 
-        // Finally, add full text
-        if (!tokenMap.containsKey(ms.getLower())) {
-            tokenMap.put(ms.getLower(), new HashSet<MetaString>());
-        }
-        if (!newTokens.containsKey(ms.getLower())) {
-            newTokens.put(ms.getLower(), new HashSet<MetaString>());
+    private synchronized void setLastTokens(int version, String query, int radius,
+                                            HashSet<String> tokens) {
+        if (version != indexVersion) {
+            // The index changed during the search
+            return;
         }
-        tokenMap.get(ms.getLower()).add(ms);
-        newTokens.get(ms.getLower()).add(ms);
+        lastQuery = query;
+        lastRadius = radius;
+        lastTokens = tokens;
+    }
 
-        return newTokens;
+    private synchronized void forgetLastSearch() {
+        indexVersion++;
+        lastQuery = null;
+        lastTokens = null;
     }
 
-    private void buildBKTree() {
-        Logger.d(TAG, "Building BK Tree");
+    @Override
+    protected FilterResults performFiltering(CharSequence constraint) {
+        final int searchGeneration = generation;
+        ICancellation cancellation = new ICancellation() {
 
-        Set<String> items = matchMap.keySet();
-        String firstItem = null;
-        for (String item : items) {
-            if (firstItem == null) {
-                firstItem = item;
-                bkTree.setData(firstItem);
-            } else {
-                _insertInBKTree(bkTree, item);
+            @Override
+            public boolean isCancelled() {
+                return generation != searchGeneration;
             }
-        }
-    }
-
-    private void updateBKTree(HashMap<String, HashSet<String>> newMatches) {
-        Logger.d(TAG, "Updating BK Tree");
-        for (String item : newMatches.keySet()) {
-            _insertInBKTree(bkTree, item);
-        }
-    }
 
-    private void _insertInBKTree(Tree<String> tree, String item) {
-        // item is our root
-        if (item.equals(tree.getData())) return;
+        };
+        countSearch(false, false);
 
-        // Else, insert item in an existing subtree or as a new child
-        int d = distance.distance(tree.getData(), item);
-        if (tree.hasEdge(d)) {
-            _insertInBKTree(tree.getChild(d), item);
-        } else {
-            tree.addChild(d, item);
+        if (DEBOUNCE_DELAY > 0) {
+            try {
+                Thread.sleep(DEBOUNCE_DELAY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (cancellation.isCancelled()) {
+            Logger.v(TAG, "Newer query typed during debounce, skipping {0}", constraint);
+            return getCancelledResults();
         }
-    }
 
-    @Override
-    protected FilterResults performFiltering(CharSequence constraint) {
-        Logger.d(TAG, "Performing filter operation for {}", constraint);
+        Logger.d(TAG, "Performing filter operation for {0}", constraint);
         timer.start("filter");
 
         FilterResults filterResults = new FilterResults();
         if (constraint != null) {
-            ArrayList<MetaString> results = search(constraint.toString());
+            ArrayList<MetaString> results = search(constraint.toString(), cancellation);
+            if (results == null) {
+                Logger.v(TAG, "Newer query typed during search, dropping {0}", constraint);
+                timer.cancel("filter");
+                return getCancelledResults();
+            }
             // We artificially set this to a minimum of 1 because it always transits by Android,
             // which will unregister its observers if it thinks there are no results.
             // This will cause the complete list to flicker and be recreated each time we type
@@ -331,12 +283,73 @@ public class Filterer extends Filter {
         }
 
         Logger.i(TAG, "Filtered for {0} in {1}ms", constraint, timer.finish("filter"));
+        Logger.d(TAG, "{0}; {1}; {2}", timer.getStats("filter"),
+                timer.getStats("incremental token search"), timer.getStats("full token search"));
+        Logger.d(TAG, "Distance cache: {0}", distance.getCacheStatsString());
+        return filterResults;
+    }
+
+    private synchronized FilterResults getCancelledResults() {
+        countSearch(true, false);
+        FilterResults filterResults = new FilterResults();
+        // Keep the current list shown, see performFiltering
+        filterResults.count = 1;
+        filterResults.values = CANCELLED;
         return filterResults;
     }
 
+    private synchronized void countSearch(boolean cancelled, boolean published) {
+        if (cancelled) {
+            searchesCancelled++;
+        } else if (published) {
+            searchesPublished++;
+        } else {
+            searchesStarted++;
+        }
+    }
+
+    public synchronized String getSearchStats() {
+        return searchesStarted + " searches started, " + searchesCancelled + " cancelled, " +
+                searchesPublished + " published";
+    }
+
+    /**
+     * Search result with its score, ordered by score then alphabetically so
+     * that ties always come out in the same order.
+     */
+    private static class ScoredResult implements Comparable<ScoredResult> {
+
+        private final MetaString ms;
+        private final int score;
+
+        public ScoredResult(MetaString ms, int score) {
+            this.ms = ms;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(ScoredResult other) {
+            if (score != other.score) {
+                return score < other.score ? -1 : 1;
+            }
+            int lowerComparison = ms.getLower().compareTo(other.ms.getLower());
+            if (lowerComparison != 0) {
+                return lowerComparison;
+            }
+            return ms.getDefinition().compareTo(other.ms.getDefinition());
+        }
+
+    }
+
     @Override
     protected void publishResults(CharSequence constraint, FilterResults results) {
-        Logger.d(TAG, "Publishing results");
+        if (results.values == CANCELLED) {
+            Logger.v(TAG, "Not publishing cancelled results");
+            return;
+        }
+
+        Logger.d(TAG, "Publishing results ({0})", getSearchStats());
+        countSearch(false, true);
         //noinspection unchecked
         adapter.setResults((ArrayList<MetaString>)results.values);
     }
@@ -0,0 +1,11 @@
+package com.brainydroid.daydreaming.ui.filtering;
+
+/**
+ * Lets a long-running search check whether its result is still wanted, so
+ * that it can give up early.
+ */
+public interface ICancellation {
+
+    public boolean isCancelled();
+
+}
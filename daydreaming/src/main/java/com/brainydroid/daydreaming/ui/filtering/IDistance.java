@@ -4,6 +4,19 @@ public interface IDistance {
 
     public int distance(String s, String t);
 
+    /**
+     * Distance between {@code s} and {@code t} if it is at most {@code limit},
+     * {@code limit + 1} otherwise.
+     */
+    public int distance(String s, String t, int limit);
+
     public int metaDistance(String s, MetaString ms);
 
+    /**
+     * Smallest distance between {@code s} and the full text, tokens and tags
+     * of {@code ms} if it is at most {@code limit}, {@code limit + 1}
+     * otherwise.
+     */
+    public int metaDistance(String s, MetaString ms, int limit);
+
 }
@@ -1,47 +1,69 @@
 package com.brainydroid.daydreaming.ui.filtering;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
-
 public class LevenshteinDistance extends CachingDistance implements IDistance {
 
     private static String TAG = "LevenshteinDistance";
 
-    protected int computeDistance(String s, String t) {
+    /**
+     * Banded Levenshtein distance: only the cells within {@code limit} of the
+     * diagonal are computed, on two rows of primitive ints, and the
+     * computation stops as soon as a whole row exceeds {@code limit}.
+     */
+    @Override
+    protected int computeDistance(String s, String t, int limit) {
         // Lengths
         int m = s.length();
         int n = t.length();
+        int outside = limit + 1;
+        if (Math.abs(m - n) > limit) return outside;
 
-        // Initialize distance matrix
-        ArrayList<ArrayList<Integer>> distances = new ArrayList<ArrayList<Integer>>(m + 1);
-        for (int i = 0; i < m + 1; i++) {
-            ArrayList<Integer> row = new ArrayList<Integer>(n + 1);
-            for (int j = 0; j < n + 1; j++) row.add(j, 0);
-            distances.add(i, row);
+        // Keep the rows along the shortest string
+        if (n > m) {
+            String swap = s;
+            s = t;
+            t = swap;
+            m = s.length();
+            n = t.length();
         }
+        if (n == 0) return m;
+
+        int[] previous = new int[n + 1];
+        int[] current = new int[n + 1];
+        for (int j = 0; j < n + 1; j++) previous[j] = j <= limit ? j : outside;
+
+        for (int i = 1; i < m + 1; i++) {
+            // Band of the row, and its out-of-band borders
+            int from = Math.max(1, i - limit);
+            int to = Math.min(n, i + limit);
+            current[0] = i <= limit ? i : outside;
+            current[from - 1] = from == 1 ? current[0] : outside;
+            if (to < n) current[to + 1] = outside;
 
-        // Initialize edges of distance matrix
-        for (int i = 1; i < m + 1; i++) distances.get(i).add(0, i);
-        for (int j = 1; j < n + 1; j++) distances.get(0).add(j, j);
-
-        for (int j = 1; j < n + 1; j++) {
-            for (int i = 1; i < m + 1; i++) {
-
-                if (s.charAt(i - 1) == t.charAt(j - 1)) distances.get(i).add(j, distances.get(i - 1).get(j - 1));  // No operation required
-                else {
-                    List<Integer> values = Arrays.asList(
-                            distances.get(i - 1).get(j) + 1,  // Deletion
-                            distances.get(i).get(j - 1) + 1,  // Insertion
-                            distances.get(i - 1).get(j - 1) + 1   // Substitution
-                    );
-                    distances.get(i).add(j, Collections.min(values));
+            int rowMin = current[from - 1];
+            char sChar = s.charAt(i - 1);
+            for (int j = from; j <= to; j++) {
+                int value;
+                if (sChar == t.charAt(j - 1)) {
+                    value = previous[j - 1];  // No operation required
+                } else {
+                    value = Math.min(previous[j - 1],  // Substitution
+                            Math.min(previous[j],  // Deletion
+                                    current[j - 1])) + 1;  // Insertion
                 }
+                value = Math.min(value, outside);
+                current[j] = value;
+                if (value < rowMin) rowMin = value;
             }
+
+            // Distances never decrease along the diagonal, so we're done
+            if (rowMin > limit) return outside;
+
+            int[] swap = previous;
+            previous = current;
+            current = swap;
         }
 
-        return distances.get(m).get(n);
+        return previous[n];
     }
 
 }
@@ -2,7 +2,7 @@ package com.brainydroid.daydreaming.ui.filtering;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MetaString {
 
@@ -20,13 +20,23 @@ public class MetaString {
     private ArrayList<String> tags;
     private String joinedTags;
 
-    private static HashMap<String, MetaString> instances = new HashMap<String, MetaString>();
+    // Instances are built from any thread (e.g. when building indexes in
+    // parallel), so interning must be atomic
+    private static ConcurrentHashMap<String, MetaString> instances =
+            new ConcurrentHashMap<String, MetaString>();
 
     public static MetaString getInstance(String string) {
-        if (!instances.containsKey(string)) {
-            instances.put(string, new MetaString(string));
+        MetaString instance = instances.get(string);
+        if (instance == null) {
+            // Parse outside of any lock; if another thread won the race,
+            // use its instance so there is only ever one per string
+            MetaString newInstance = new MetaString(string);
+            instance = instances.putIfAbsent(string, newInstance);
+            if (instance == null) {
+                instance = newInstance;
+            }
         }
-        return instances.get(string);
+        return instance;
     }
 
     private MetaString(String definition) {
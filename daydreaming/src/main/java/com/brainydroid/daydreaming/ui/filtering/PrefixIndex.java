@@ -0,0 +1,232 @@
+package com.brainydroid.daydreaming.ui.filtering;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Index of tokens answering prefix queries, stored as a single sorted array.
+ * <p/>
+ * The sorted array is an implicit trie: the tokens starting with a given
+ * prefix form a contiguous range of it, and the children of that prefix
+ * are the sub-ranges grouping tokens by their next character. So no prefix
+ * is ever materialized. Prefixes within an edit distance of a query are
+ * found by walking the implicit trie with one row of the Levenshtein matrix
+ * per depth, dropping branches whose row exceeds the radius ({@link
+ * #searchPrefixes}).
+ * <p/>
+ * Many tokens are best added with {@link #addAll}, which sorts once, and a
+ * few with {@link #add}, which inserts each one in place.
+ */
+public class PrefixIndex {
+
+    private static String TAG = "PrefixIndex";
+
+    private static int INITIAL_CAPACITY = 64;
+
+    private String[] tokens = new String[INITIAL_CAPACITY];
+    private int size = 0;
+    private int maxLength = 0;
+
+    /**
+     * Add all {@code newTokens}, sorting once.
+     *
+     * @return Number of tokens which were not already in the index
+     */
+    public synchronized int addAll(Collection<String> newTokens) {
+        ensureCapacity(size + newTokens.size());
+        int oldSize = size;
+        for (String token : newTokens) {
+            tokens[size++] = token;
+            maxLength = Math.max(maxLength, token.length());
+        }
+        Arrays.sort(tokens, 0, size);
+
+        // Drop duplicates
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || !tokens[i].equals(tokens[unique - 1])) {
+                tokens[unique++] = tokens[i];
+            }
+        }
+        Arrays.fill(tokens, unique, size, null);
+        size = unique;
+        return size - oldSize;
+    }
+
+    /**
+     * Add {@code token} at its place in the array, if it is not already in
+     * the index.
+     *
+     * @return {@code true} if it was added
+     */
+    public synchronized boolean add(String token) {
+        int index = Arrays.binarySearch(tokens, 0, size, token);
+        if (index >= 0) return false;
+
+        index = -index - 1;
+        ensureCapacity(size + 1);
+        System.arraycopy(tokens, index, tokens, index + 1, size - index);
+        tokens[index] = token;
+        size++;
+        maxLength = Math.max(maxLength, token.length());
+        return true;
+    }
+
+    /**
+     * Add to {@code results} all the tokens having a prefix at least {@code
+     * minLength} long, starting with the same character as {@code query}, and
+     * within {@code radius} edits of {@code query}. If {@code cancellation}
+     * (which can be {@code null}) reports the search is cancelled, the walk
+     * stops and {@code results} is incomplete.
+     */
+    public synchronized void searchPrefixes(String query, int radius, int minLength,
+                                            Collection<String> results,
+                                            ICancellation cancellation) {
+        if (size == 0 || query.length() == 0) return;
+
+        // One Levenshtein row per depth of the walk
+        int n = query.length();
+        int[][] rows = new int[maxLength + 1][n + 1];
+        for (int j = 0; j < n + 1; j++) rows[0][j] = j;
+
+        // Only follow the branch of the first character of the query
+        int[] range = getChildRange(0, 0, size, query.charAt(0));
+        if (range[0] < range[1]) {
+            searchPrefixes(query, radius, minLength, 1, range[0], range[1], rows, results,
+                    cancellation);
+        }
+    }
+
+    private synchronized void searchPrefixes(String query, int radius, int minLength,
+                                             int depth, int from, int to, int[][] rows,
+                                             Collection<String> results,
+                                             ICancellation cancellation) {
+        if (cancellation != null && cancellation.isCancelled()) return;
+
+        // Compute the row of this prefix, whose last character is shared
+        // by all the tokens in range
+        int n = query.length();
+        char c = tokens[from].charAt(depth - 1);
+        int[] previous = rows[depth - 1];
+        int[] current = rows[depth];
+        current[0] = depth;
+        int rowMin = current[0];
+        for (int j = 1; j < n + 1; j++) {
+            int cost = query.charAt(j - 1) == c ? 0 : 1;
+            current[j] = Math.min(previous[j - 1] + cost,
+                    Math.min(previous[j], current[j - 1]) + 1);
+            rowMin = Math.min(rowMin, current[j]);
+        }
+
+        if (rowMin > radius) return;
+        if (depth >= minLength && current[n] <= radius) {
+            // All the longer prefixes lead to tokens in the same range
+            addTokens(from, to, results);
+            return;
+        }
+
+        // Skip the token ending here, then walk each group of next characters
+        int child = from;
+        if (tokens[child].length() == depth) child++;
+        while (child < to) {
+            int[] childRange = getChildRange(depth, child, to, tokens[child].charAt(depth));
+            searchPrefixes(query, radius, minLength, depth + 1, childRange[0], childRange[1],
+                    rows, results, cancellation);
+            child = childRange[1];
+        }
+    }
+
+    /**
+     * Check if {@code token} has a prefix matching {@code query} the way
+     * {@link #searchPrefixes} does, e.g. to re-check tokens it found for a
+     * shorter query.
+     */
+    public static boolean hasPrefixWithin(String token, String query, int radius,
+                                          int minLength) {
+        int n = query.length();
+        if (n == 0 || token.length() == 0 || token.charAt(0) != query.charAt(0)) return false;
+
+        int[] previous = new int[n + 1];
+        int[] current = new int[n + 1];
+        for (int j = 0; j < n + 1; j++) previous[j] = j;
+        for (int i = 1; i <= token.length(); i++) {
+            char c = token.charAt(i - 1);
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j < n + 1; j++) {
+                int cost = query.charAt(j - 1) == c ? 0 : 1;
+                current[j] = Math.min(previous[j - 1] + cost,
+                        Math.min(previous[j], current[j - 1]) + 1);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+
+            if (rowMin > radius) return false;
+            if (i >= minLength && current[n] <= radius) return true;
+
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return false;
+    }
+
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * Approximate memory used by the index, in bytes: its array (counting 4
+     * bytes per reference) and the characters of its tokens.
+     */
+    public synchronized long getMemoryFootprint() {
+        long footprint = 4L * tokens.length;
+        for (int i = 0; i < size; i++) {
+            footprint += 2 * tokens[i].length();
+        }
+        return footprint;
+    }
+
+    private synchronized void addTokens(int from, int to, Collection<String> results) {
+        for (int i = from; i < to; i++) {
+            results.add(tokens[i]);
+        }
+    }
+
+    /**
+     * Range of the tokens having {@code c} at {@code depth}, among the tokens
+     * in {@code [from, to)}, which all share their first {@code depth}
+     * characters.
+     */
+    private synchronized int[] getChildRange(int depth, int from, int to, char c) {
+        int childFrom = searchChar(depth, from, to, c);
+        int childTo = searchChar(depth, childFrom, to, (char)(c + 1));
+        if (c == Character.MAX_VALUE) childTo = to;
+        return new int[] {childFrom, childTo};
+    }
+
+    /**
+     * First token in {@code [from, to)} having a character at least {@code
+     * c} at {@code depth}. Tokens ending before {@code depth} come first.
+     */
+    private synchronized int searchChar(int depth, int from, int to, char c) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            String token = tokens[middle];
+            if (token.length() <= depth || token.charAt(depth) < c) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    private synchronized void ensureCapacity(int capacity) {
+        if (capacity <= tokens.length) return;
+
+        String[] newTokens = new String[Math.max(capacity, 2 * tokens.length)];
+        System.arraycopy(tokens, 0, newTokens, 0, size);
+        tokens = newTokens;
+    }
+
+}
@@ -5,7 +5,7 @@ public class SuperHamming extends CachingDistance implements IDistance {
     private static String TAG = "SuperHamming";
 
     @Override
-    protected int computeDistance(String s, String t) {
+    protected int computeDistance(String s, String t, int limit) {
         String shortest, longest;
         if (s.length() <= t.length()) {
             shortest = s;
@@ -16,10 +16,10 @@ public class SuperHamming extends CachingDistance implements IDistance {
         }
 
         int l = shortest.length();
-        int realHamming = 0;
-        for (int i = 0; i < l; i++)
+        int realHamming = longest.length() - l;
+        for (int i = 0; i < l && realHamming <= limit; i++)
             realHamming += shortest.charAt(i) == longest.charAt(i) ? 0 : 1;
 
-        return realHamming + longest.length() - l;
+        return Math.min(realHamming, limit + 1);
     }
 }
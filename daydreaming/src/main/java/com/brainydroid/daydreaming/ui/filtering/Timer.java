@@ -8,13 +8,40 @@ public class Timer {
     private static String TAG = "Timer";
 
     private HashMap<String, Long> running = new HashMap<String, Long>();
+    // Number of runs, total and maximum time of each finished timer
+    private HashMap<String, long[]> finished = new HashMap<String, long[]>();
 
-    public void start(String name) {
+    public synchronized void start(String name) {
         running.put(name, now());
     }
 
-    public long finish(String name) {
-        return now() - running.remove(name);
+    public synchronized long finish(String name) {
+        long elapsed = now() - running.remove(name);
+        long[] stats = finished.get(name);
+        if (stats == null) {
+            stats = new long[3];
+            finished.put(name, stats);
+        }
+        stats[0]++;
+        stats[1] += elapsed;
+        stats[2] = Math.max(stats[2], elapsed);
+        return elapsed;
+    }
+
+    /**
+     * Stop a timer without counting its run.
+     */
+    public synchronized void cancel(String name) {
+        running.remove(name);
+    }
+
+    public synchronized String getStats(String name) {
+        long[] stats = finished.get(name);
+        if (stats == null) {
+            return name + ": no runs";
+        }
+        return String.format("%s: %d runs, %.1fms average, %dms max", name, stats[0],
+                (double)stats[1] / stats[0], stats[2]);
     }
 
     private long now() {
@@ -9,7 +9,7 @@ import com.brainydroid.daydreaming.R;
 import com.brainydroid.daydreaming.background.LocationPointService;
 import com.brainydroid.daydreaming.background.Logger;
 import com.brainydroid.daydreaming.background.StatusManager;
-import com.brainydroid.daydreaming.network.SntpClient;
+import com.brainydroid.daydreaming.network.NtpTimeService;
 import com.brainydroid.daydreaming.ui.FontUtils;
 import com.brainydroid.daydreaming.ui.dashboard.DashboardActivity;
 import com.google.inject.Inject;
@@ -25,7 +25,7 @@ public abstract class FirstLaunchActivity extends RoboFragmentActivity {
     private static String TAG = "FirstLaunchActivity";
 
     @Inject StatusManager statusManager;
-    @Inject SntpClient sntpClient;
+    @Inject NtpTimeService ntpTimeService;
 
     private boolean testModeThemeActivated = false;
 
@@ -92,7 +92,7 @@ public class AutoListQuestionViewAdapter
             adapter = (AutoCompleteAdapter)details.getPreLoadedObject();
             // Add missing user possibilities
             addUserPossibilitiesToAdapter();
-            autoTextView.setAdapter(adapter);
+            adapter.attachTo(autoTextView);
         } else {
             Logger.v(TAG, "Details not yet pre-loaded, registering callback");
 
@@ -107,7 +107,7 @@ public class AutoListQuestionViewAdapter
                     adapter = (AutoCompleteAdapter)details.getPreLoadedObject();
                     // Add missing user possibilities
                     addUserPossibilitiesToAdapter();
-                    autoTextView.setAdapter(adapter);
+                    adapter.attachTo(autoTextView);
                     try {
                         progressDialog.dismiss();
                     } catch (IllegalArgumentException e) {
@@ -30,6 +30,8 @@ import com.brainydroid.daydreaming.ui.AlphaSeekBar;
 import com.brainydroid.daydreaming.ui.FontUtils;
 import com.brainydroid.daydreaming.ui.filtering.AutoCompleteAdapter;
 import com.brainydroid.daydreaming.ui.filtering.AutoCompleteAdapterFactory;
+import com.brainydroid.daydreaming.ui.filtering.FilterIndex;
+import com.brainydroid.daydreaming.ui.filtering.FilterIndexStore;
 import com.brainydroid.daydreaming.ui.filtering.MetaString;
 import com.google.inject.Inject;
 
@@ -51,6 +53,7 @@ public class ManySlidersQuestionViewAdapter
     @InjectResource(R.string.page_edit_mode_edit) String editTextEdit;
 
     @Inject private AutoCompleteAdapterFactory autoCompleteAdapterFactory;
+    @Inject private FilterIndexStore filterIndexStore;
     @Inject private HashMap<MetaString, LinearLayout> sliderLayouts;
     @Inject private ManySlidersAnswer answer;
     @Inject private InputMethodManager inputMethodManager;
@@ -104,28 +107,35 @@ public class ManySlidersQuestionViewAdapter
                 .findViewById(R.id.question_many_sliders_autoCompleteTextView);
         autoTextView.setHint(details.getAddItemHint());
         final AutoCompleteAdapter autoCompleteAdapter = autoCompleteAdapterFactory.create();
-        autoTextView.setAdapter(autoCompleteAdapter);
-
-        // Load auto-complete adapter
-        final ArrayList<String> allPossibleSliders = new ArrayList<String>();
-        allPossibleSliders.addAll(details.getAvailableSliders());
-        allPossibleSliders.addAll(userSliders);
-        (new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... voids) {
-                autoCompleteAdapter.initialize(allPossibleSliders);
-                return null;
-            }
+        autoCompleteAdapter.attachTo(autoTextView);
+
+        // Load auto-complete adapter, user sliders going on top of the prebuilt index
+        final ArrayList<String> availableSliders = details.getAvailableSliders();
+        final ArrayList<String> addedSliders = userSliders;
+        FilterIndex loadedIndex = filterIndexStore.getLoadedIndex(availableSliders);
+        if (loadedIndex != null) {
+            Logger.v(TAG, "Auto-complete index already loaded, initializing adapter directly");
+            autoCompleteAdapter.initialize(loadedIndex, addedSliders);
+            autoCompleteAdapterLoaded = true;
+        } else {
+            (new AsyncTask<Void, Void, Void>() {
+                @Override
+                protected Void doInBackground(Void... voids) {
+                    autoCompleteAdapter.initialize(filterIndexStore.getIndex(availableSliders),
+                            addedSliders);
+                    return null;
+                }
 
-            @Override
-            protected void onPostExecute(Void result) {
-                autoCompleteAdapterLoaded = true;
-                if (progressDialog != null) {
-                    progressDialog.dismiss();
-                    progressDialog = null;
+                @Override
+                protected void onPostExecute(Void result) {
+                    autoCompleteAdapterLoaded = true;
+                    if (progressDialog != null) {
+                        progressDialog.dismiss();
+                        progressDialog = null;
+                    }
                 }
-            }
-        }).execute();
+            }).execute();
+        }
 
         // Set auto-complete item click listener
         autoTextView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
@@ -17,6 +17,7 @@ import com.brainydroid.daydreaming.R;
 import com.brainydroid.daydreaming.background.EQSchedulerService;
 import com.brainydroid.daydreaming.background.ErrorHandler;
 import com.brainydroid.daydreaming.background.LocationCallback;
+import com.brainydroid.daydreaming.background.LocationFixCache;
 import com.brainydroid.daydreaming.background.LocationServiceConnection;
 import com.brainydroid.daydreaming.background.Logger;
 import com.brainydroid.daydreaming.background.MQSchedulerService;
@@ -24,8 +25,8 @@ import com.brainydroid.daydreaming.background.ProbeSchedulerService;
 import com.brainydroid.daydreaming.background.StatusManager;
 import com.brainydroid.daydreaming.db.ConsistencyException;
 import com.brainydroid.daydreaming.db.SequencesStorage;
-import com.brainydroid.daydreaming.network.SntpClient;
-import com.brainydroid.daydreaming.network.SntpClientCallback;
+import com.brainydroid.daydreaming.network.NtpTimeCallback;
+import com.brainydroid.daydreaming.network.NtpTimeService;
 import com.brainydroid.daydreaming.sequence.Page;
 import com.brainydroid.daydreaming.sequence.Sequence;
 import com.brainydroid.daydreaming.ui.FontUtils;
@@ -68,9 +69,10 @@ public class PageActivity extends RoboFragmentActivity {
 
     @Inject private PageViewAdapter pageViewAdapter;
     @Inject LocationServiceConnection locationServiceConnection;
+    @Inject LocationFixCache locationFixCache;
     @Inject SequencesStorage sequencesStorage;
     @Inject StatusManager statusManager;
-    @Inject SntpClient sntpClient;
+    @Inject NtpTimeService ntpTimeService;
     @Inject ErrorHandler errorHandler;
 
     @Override
@@ -278,6 +280,7 @@ public class PageActivity extends RoboFragmentActivity {
 
         Intent schedulerIntent;
         if (type.equals(Sequence.TYPE_PROBE)) {
+            // Arms the next planned probe
             schedulerIntent = new Intent(this, ProbeSchedulerService.class);
         } else if (type.equals(Sequence.TYPE_MORNING_QUESTIONNAIRE)) {
             schedulerIntent = new Intent(this, MQSchedulerService.class);
@@ -303,26 +306,33 @@ public class PageActivity extends RoboFragmentActivity {
 
         };
 
-        SntpClientCallback sntpCallback = new SntpClientCallback() {
+        NtpTimeCallback ntpCallback = new NtpTimeCallback() {
 
-            private final String TAG = "SntpClientCallback";
+            private final String TAG = "NtpTimeCallback";
 
             @Override
-            public void onTimeReceived(SntpClient sntpClient) {
-                if (sntpClient != null) {
-                    currentPage.setNtpTimestamp(sntpClient.getNow());
+            public void onTimeReceived(boolean success, long ntpTime) {
+                if (success) {
+                    currentPage.setNtpTimestamp(ntpTime);
                     Logger.i(TAG, "Received and saved NTP time for page");
                 } else {
-                    Logger.e(TAG, "Received successful NTP request but sntpClient is null");
+                    Logger.e(TAG, "NTP time for page unavailable");
                 }
             }
 
         };
 
-        locationServiceConnection.setQuestionLocationCallback(locationCallback);
+        Logger.i(TAG, "Getting NTP time");
+        ntpTimeService.asyncNow(ntpCallback);
 
-        Logger.i(TAG, "Launching NTP request");
-        sntpClient.asyncRequestTime(sntpCallback);
+        Location cachedFix = locationFixCache.getFreshFix();
+        if (cachedFix != null) {
+            Logger.i(TAG, "Recent location available -> not starting LocationService");
+            currentPage.setLocation(cachedFix);
+            return;
+        }
+
+        locationServiceConnection.setQuestionLocationCallback(locationCallback);
 
         if (!statusManager.isLocationServiceRunning()) {
             Logger.i(TAG, "LocationService not running -> binding and starting");